@@ -0,0 +1,170 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+// Compares the current KeysState against the HashSet<Integer>-based
+// implementation it replaced. Each operation is a press or release followed
+// by an encode, which is what Main.keyUpdate() does per key event.
+//
+// This is a plain timing loop, not a rigorous harness; run it a few times and
+// compare the figures relative to each other rather than as absolutes.
+public class KeysStateBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final int operations = 1000000;
+
+	// Keeps results reachable so the JIT can't discard the work
+	private static volatile int sink;
+
+	// The state engine as it was before the switch to a bitset, kept only for
+	// comparison.
+	private static class HashSetKeysState {
+		private HashSet<Integer> pressedKeyCodes = new HashSet<>();
+
+		boolean update(int keyCode, boolean pressed) {
+			synchronized (this) {
+				if (pressed) {
+					return pressedKeyCodes.add(keyCode);
+				} else {
+					return pressedKeyCodes.remove(keyCode);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private HashSet<Integer> getClone() {
+			synchronized (this) {
+				return (HashSet<Integer>) pressedKeyCodes.clone();
+			}
+		}
+
+		// Packet is no longer String-backed, so this stops at the String the
+		// old code would have wrapped.
+		String getAsPacketData() {
+			HashSet<Integer> si = getClone();
+
+			int lastSetIndex = -1;
+			for (Integer n : si) {
+				if (n > lastSetIndex) {
+					lastSetIndex = n;
+				}
+			}
+
+			int sextetsToEncode = (lastSetIndex + 1 + 5) / 6;
+			if (sextetsToEncode == 0) {
+				sextetsToEncode = 1;
+			}
+
+			char[] packetData = new char[sextetsToEncode];
+			boolean[] b = new boolean[6];
+
+			for (int i = 0; i < sextetsToEncode; ++i) {
+				for (int j = 0; j < 6; ++j) {
+					b[j] = si.contains((i * 6) + j);
+				}
+
+				int value = (b[0] ? 0x01 : 0) | (b[1] ? 0x02 : 0) | (b[2] ? 0x04 : 0) | (b[3] ? 0x08 : 0)
+						| (b[4] ? 0x10 : 0) | (b[5] ? 0x20 : 0);
+				packetData[i] = (char) (((value + 0x10) & 0x3F) + 0x30);
+			}
+
+			return String.valueOf(packetData);
+		}
+	}
+
+	private interface Subject {
+		int run(int[] keyCodes, int operations);
+	}
+
+	private static final Subject HASH_SET = new Subject() {
+		@Override
+		public int run(int[] keyCodes, int operations) {
+			HashSetKeysState state = new HashSetKeysState();
+			int acc = 0;
+			for (int i = 0; i < operations; ++i) {
+				int keyCode = keyCodes[i % keyCodes.length];
+				boolean pressed = ((i / keyCodes.length) & 1) == 0;
+				if (state.update(keyCode, pressed)) {
+					acc += state.getAsPacketData().length();
+				}
+			}
+			return acc;
+		}
+	};
+
+	private static final Subject BITSET = new Subject() {
+		@Override
+		public int run(int[] keyCodes, int operations) {
+			KeysState state = new KeysState();
+			int acc = 0;
+			for (int i = 0; i < operations; ++i) {
+				int keyCode = keyCodes[i % keyCodes.length];
+				boolean pressed = ((i / keyCodes.length) & 1) == 0;
+				if (state.update(keyCode, pressed)) {
+					acc += state.getAsPacket().getDataLength();
+				}
+			}
+			return acc;
+		}
+	};
+
+	public static void main(String[] args) {
+		// S D F J K L, the usual six-lane layout
+		int[] sixLanes = { 83, 68, 70, 74, 75, 76 };
+		// The same plus a key code near the top of the VK_ range
+		int[] sixLanesAndHighKey = { 83, 68, 70, 74, 75, 76, 0xF000 };
+
+		compare("six lanes", sixLanes, 1000000);
+		compare("six lanes + high key", sixLanesAndHighKey, 2000);
+	}
+
+	private static void compare(String label, int[] keyCodes, int operations) {
+		double before = measure(HASH_SET, keyCodes, operations);
+		double after = measure(BITSET, keyCodes, operations);
+		System.out.printf("%-24s HashSet %9.1f ns/op   bitset %9.1f ns/op   (%.2fx)%n", label, before, after,
+				before / after);
+	}
+
+	// Returns the median of the measured rounds in nanoseconds per operation.
+	private static double measure(Subject subject, int[] keyCodes, int operations) {
+		for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+			sink += subject.run(keyCodes, operations);
+		}
+
+		double[] results = new double[MEASURED_ROUNDS];
+		for (int i = 0; i < MEASURED_ROUNDS; ++i) {
+			long start = System.nanoTime();
+			sink += subject.run(keyCodes, operations);
+			long elapsed = System.nanoTime() - start;
+			results[i] = (double) elapsed / operations;
+		}
+
+		Arrays.sort(results);
+		return results[results.length / 2];
+	}
+}
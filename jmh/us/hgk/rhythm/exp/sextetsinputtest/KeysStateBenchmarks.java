@@ -0,0 +1,90 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// KeysState.update() alone, and followed by getAsPacket() as Main.keyUpdate()
+// does, for different numbers of keys in use and different highest key
+// codes. Each invocation presses or releases the next key in a fixed cycle
+// (press all in turn, then release all in turn), so every update changes the
+// state.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeysStateBenchmarks {
+
+	@Param({ "1", "6", "16" })
+	int keyCount;
+
+	// The key codes used are spread evenly from 0 up to this value
+	@Param({ "63", "255", "4095", "61440" })
+	int maxKeyCode;
+
+	private KeysState state;
+	private int[] keyCodes;
+	private int step;
+
+	@Setup
+	public void setUp() {
+		state = new KeysState();
+		keyCodes = new int[keyCount];
+		for (int i = 0; i < keyCount; ++i) {
+			keyCodes[i] = (int) ((long) maxKeyCode * (i + 1) / keyCount);
+		}
+		step = 0;
+	}
+
+	@Benchmark
+	public boolean update() {
+		return nextUpdate();
+	}
+
+	@Benchmark
+	public Packet updateAndGetAsPacket() {
+		nextUpdate();
+		return state.getAsPacket();
+	}
+
+	private boolean nextUpdate() {
+		int i = step;
+		step = (i + 1) % (keyCount * 2);
+		return state.update(keyCodes[i % keyCount], i < keyCount);
+	}
+}
@@ -0,0 +1,111 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// PacketWriterService.sendPacket() with the writer thread running and
+// draining into a sink that discards everything, so the queue sees the same
+// producer/consumer traffic it does in the application. The contended group
+// adds a thread hammering hintSendKeepalive(), standing in for the watchdog.
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketWriterServiceBenchmarks {
+
+	// A writer that needs no Main and writes nowhere
+	static class DiscardingPacketWriterService extends PacketWriterService {
+		volatile long written;
+
+		DiscardingPacketWriterService() {
+			super(null);
+		}
+
+		@Override
+		protected void writingPacket(Packet packet) {
+		}
+
+		@Override
+		protected void outputPacket(Packet packet) {
+			written++;
+		}
+	}
+
+	private DiscardingPacketWriterService writer;
+	private Packet packet;
+
+	@Setup
+	public void setUp() {
+		KeysState state = new KeysState();
+		state.update(83, true);
+		state.update(76, true);
+		packet = state.getAsPacket();
+
+		writer = new DiscardingPacketWriterService();
+		writer.startAsync().awaitRunning();
+	}
+
+	@TearDown
+	public void tearDown() {
+		writer.stopAsync().awaitTerminated();
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public void send() {
+		writer.sendPacket(packet);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void sendAlongsideKeepalives() {
+		writer.sendPacket(packet);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void hintKeepalive() {
+		writer.hintSendKeepalive();
+	}
+}
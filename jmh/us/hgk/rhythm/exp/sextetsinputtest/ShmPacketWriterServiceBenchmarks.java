@@ -0,0 +1,145 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ShmPacketWriterService.outputPacket(), called directly, with a
+// ShmPacketReader on another thread polling the ring and counting lines.
+// outputPacket measures the cost to the writer; outputPacketToReader waits for
+// each packet to arrive at the reader, and samples the latency. These mirror
+// the benchmarks of the same names in TcpPacketWriterServiceBenchmarks, for
+// comparison with TCP over the loopback interface.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShmPacketWriterServiceBenchmarks {
+
+	// Packet data length in sextets
+	@Param({ "1", "16", "1024" })
+	int length;
+
+	private File file;
+	private ShmPacketWriterService writer;
+	private Thread poller;
+	private volatile boolean stopping;
+	private volatile long linesReceived;
+	private Packet packet;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] data = new byte[length];
+		Arrays.fill(data, SextetEncoder.encode(0x15));
+		packet = Packet.get(data, length);
+
+		File shm = new File("/dev/shm");
+		file = File.createTempFile("sextet-bench", ".ring", shm.isDirectory() ? shm : null);
+		writer = new ShmPacketWriterService(null, file) {
+			@Override
+			protected void writingPacket(Packet packet) {
+			}
+		};
+		writer.startAsync().awaitRunning();
+
+		final ShmPacketReader reader = new ShmPacketReader(ShmRing.open(file));
+		poller = new Thread("shm-reader") {
+			@Override
+			public void run() {
+				poll(reader);
+			}
+		};
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		stopping = true;
+		poller.join();
+		writer.stopAsync().awaitTerminated(5, TimeUnit.SECONDS);
+		file.delete();
+	}
+
+	@Benchmark
+	public void outputPacket() throws IOException {
+		writer.outputPacket(packet);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	public void outputPacketToReader() throws IOException {
+		long expected = linesReceived + 1;
+		writer.outputPacket(packet);
+		while (linesReceived < expected) {
+		}
+	}
+
+	// Polls without pausing, as the client of the TCP benchmark effectively
+	// does by blocking in read()
+	private void poll(ShmPacketReader reader) {
+		OutputStream counter = new OutputStream() {
+			@Override
+			public void write(int b) {
+				if (b == '\n') {
+					linesReceived++;
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				for (int i = off; i < off + len; ++i) {
+					write(b[i]);
+				}
+			}
+		};
+
+		try {
+			while (!stopping) {
+				reader.poll(counter);
+			}
+		} catch (IOException e) {
+			// Not thrown by the counter
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// TcpPacketWriterService.outputPacket(), called directly, with a client on
+// the loopback interface reading and discarding everything, for each way of
+// writing to the socket. outputPacket measures the cost to the writer;
+// outputPacketToClient waits for each packet to arrive at the client, and
+// samples the latency.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TcpPacketWriterServiceBenchmarks {
+
+	// Packet data length in sextets
+	@Param({ "1", "16", "1024" })
+	int length;
+
+	@Param({ "STREAM", "CHANNEL" })
+	String io;
+
+	@Param({ "false", "true" })
+	boolean nodelay;
+
+	private TcpPacketWriterService writer;
+	private Socket client;
+	private Thread drain;
+	private volatile long linesReceived;
+	private Packet packet;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] data = new byte[length];
+		Arrays.fill(data, SextetEncoder.encode(0x15));
+		packet = Packet.get(data, length);
+
+		int port = findFreePort();
+		writer = new TcpPacketWriterService(null, "127.0.0.1", port, false, PacketWriterService.Io.valueOf(io),
+				new TcpSocketOptions(nodelay, 0)) {
+			@Override
+			protected void writingPacket(Packet packet) {
+			}
+		};
+		writer.startAsync().awaitRunning();
+
+		client = connect(port);
+		drain = new Thread("loopback-sink") {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+
+		// outputPacket() can only be called once the writer has accepted the
+		// client; a packet making the round trip shows that it has.
+		writer.sendPacket(packet);
+		while (linesReceived == 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		writer.stopAsync();
+		client.close();
+		writer.awaitTerminated(5, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	public void outputPacket() throws IOException {
+		writer.outputPacket(packet);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	public void outputPacketToClient() throws IOException {
+		long expected = linesReceived + 1;
+		writer.outputPacket(packet);
+		while (linesReceived < expected) {
+		}
+	}
+
+	private void drain() {
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = client.getInputStream()) {
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				for (int i = 0; i < n; ++i) {
+					if (buffer[i] == '\n') {
+						linesReceived++;
+					}
+				}
+			}
+		} catch (IOException e) {
+			// Closed at teardown
+		}
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+			return probe.getLocalPort();
+		}
+	}
+
+	// The writer opens its server socket on its own thread after it reports
+	// running, so the first few attempts may be refused.
+	private static Socket connect(int port) throws Exception {
+		for (;;) {
+			try {
+				return new Socket("127.0.0.1", port);
+			} catch (ConnectException e) {
+				Thread.sleep(10);
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// UnixPacketWriterService.outputPacket(), called directly, with a client
+// reading and discarding everything, for each way of writing to the socket.
+// These mirror the benchmarks of the same names in
+// TcpPacketWriterServiceBenchmarks, for comparison with TCP over the loopback
+// interface. Requires Java 16 or later.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnixPacketWriterServiceBenchmarks {
+
+	// Packet data length in sextets
+	@Param({ "1", "16", "1024" })
+	int length;
+
+	@Param({ "STREAM", "CHANNEL" })
+	String io;
+
+	private Path path;
+	private UnixPacketWriterService writer;
+	private SocketChannel client;
+	private Thread drain;
+	private volatile long linesReceived;
+	private Packet packet;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] data = new byte[length];
+		Arrays.fill(data, SextetEncoder.encode(0x15));
+		packet = Packet.get(data, length);
+
+		// Only the name is wanted; the writer binds the socket there
+		path = Files.createTempFile("sextet-bench", ".sock");
+		Files.delete(path);
+
+		writer = new UnixPacketWriterService(null, path, false, PacketWriterService.Io.valueOf(io)) {
+			@Override
+			protected void writingPacket(Packet packet) {
+			}
+		};
+		writer.startAsync().awaitRunning();
+
+		client = connect(path);
+		drain = new Thread("unix-sink") {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		drain.setDaemon(true);
+		drain.start();
+
+		// outputPacket() can only be called once the writer has accepted the
+		// client; a packet making the round trip shows that it has.
+		writer.sendPacket(packet);
+		while (linesReceived == 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		writer.stopAsync();
+		client.close();
+		writer.awaitTerminated(5, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	public void outputPacket() throws IOException {
+		writer.outputPacket(packet);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	public void outputPacketToClient() throws IOException {
+		long expected = linesReceived + 1;
+		writer.outputPacket(packet);
+		while (linesReceived < expected) {
+		}
+	}
+
+	private void drain() {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		byte[] bytes = buffer.array();
+		try {
+			int n;
+			while ((n = client.read(buffer)) >= 0) {
+				for (int i = 0; i < n; ++i) {
+					if (bytes[i] == '\n') {
+						linesReceived++;
+					}
+				}
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			// Closed at teardown
+		}
+	}
+
+	// The writer binds its socket on its own thread after it reports
+	// running, so the first few attempts may find nothing there.
+	private static SocketChannel connect(Path path) throws Exception {
+		for (;;) {
+			SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			try {
+				channel.connect(UnixDomainSocketAddress.of(path));
+				return channel;
+			} catch (SocketException e) {
+				channel.close();
+				Thread.sleep(10);
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Event-to-write latency for each writer wait strategy: the time from
+// sendPacket() until the writer thread hands that packet to outputPacket().
+// SampleTime mode reports the percentiles.
+//
+// Before each event the sender goes quiet for idleMicros, long enough with
+// the larger setting for the writer to reach its deepest idle state (parked,
+// for blocking and sleeping), which is where key events usually find it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WaitStrategyBenchmarks {
+
+	// A writer that needs no Main and only notes the last packet written
+	static class RecordingPacketWriterService extends PacketWriterService {
+		volatile Packet lastWritten;
+
+		RecordingPacketWriterService() {
+			super(null);
+		}
+
+		@Override
+		protected void writingPacket(Packet packet) {
+		}
+
+		@Override
+		protected void outputPacket(Packet packet) {
+			lastWritten = packet;
+		}
+	}
+
+	@Param({ "blocking", "sleeping", "yielding", "spin" })
+	public String strategy;
+
+	@Param({ "0", "1000" })
+	public long idleMicros;
+
+	private RecordingPacketWriterService writer;
+	private Packet[] packets;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		// Two distinct states to alternate between, so that each event
+		// is visibly written
+		KeysState state = new KeysState();
+		state.update(83, true);
+		Packet first = state.getAsPacket();
+		state.update(76, true);
+		packets = new Packet[] { first, state.getAsPacket() };
+
+		writer = new RecordingPacketWriterService();
+		writer.setWaitStrategy(WaitStrategy.forName(strategy));
+		writer.startAsync().awaitRunning();
+	}
+
+	@TearDown
+	public void tearDown() {
+		writer.stopAsync().awaitTerminated();
+	}
+
+	@Setup(Level.Invocation)
+	public void goQuiet() {
+		if (idleMicros > 0) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(idleMicros));
+		}
+	}
+
+	@Benchmark
+	public Packet eventToWrite() {
+		Packet packet = packets[next];
+		next ^= 1;
+
+		writer.sendPacket(packet);
+		while (writer.lastWritten != packet) {
+		}
+		return packet;
+	}
+}
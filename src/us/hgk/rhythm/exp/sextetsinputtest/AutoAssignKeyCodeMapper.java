@@ -0,0 +1,51 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+// Gives each raw key code the next unused index the first time it is
+// pressed, so the indexes in use are always 0 through (number of distinct
+// keys pressed so far - 1). A release of a key never seen pressed is ignored.
+//
+// Not thread-safe; meant to be called only from the thread delivering key
+// events.
+public class AutoAssignKeyCodeMapper implements KeyCodeMapper {
+
+	private final IntIndexMap indexes = new IntIndexMap(16);
+	private int nextIndex = 0;
+
+	@Override
+	public int toIndex(int rawKeyCode, boolean pressed) {
+		if (rawKeyCode < 0) {
+			return -1;
+		}
+
+		int index = indexes.get(rawKeyCode);
+		if (index < 0 && pressed) {
+			index = nextIndex++;
+			indexes.put(rawKeyCode, index);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,72 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// A direct buffer collecting packet lines for a channel, so that a batch of
+// packets goes out in a single write() (unless the channel takes only part
+// of it). Reused from batch to batch; replaced with a larger one if a single
+// packet doesn't fit.
+//
+// Not thread-safe; meant for a writer thread.
+final class ChannelBatch {
+	private ByteBuffer buffer;
+
+	ChannelBatch(int initialCapacity) {
+		buffer = ByteBuffer.allocateDirect(initialCapacity);
+	}
+
+	// Adds a packet's line, first writing out what is already here if there
+	// isn't room.
+	void put(Packet packet, WritableByteChannel channel) throws IOException {
+		int length = packet.getLineLength();
+		if (buffer.remaining() < length) {
+			writeTo(channel);
+			if (buffer.capacity() < length) {
+				buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+			}
+		}
+		packet.putLine(buffer);
+	}
+
+	// Writes out everything added since the last write.
+	void writeTo(WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	// Forgets everything added since the last write.
+	void clear() {
+		buffer.clear();
+	}
+}
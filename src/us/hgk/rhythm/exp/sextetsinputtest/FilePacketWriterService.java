@@ -0,0 +1,88 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+// Writes packets to a file, one line each, just as they would go to stdout.
+// The file is replaced if it exists.
+public class FilePacketWriterService extends PacketWriterService {
+	private static final Logger log = Logger.getLogger(FilePacketWriterService.class.getName());
+
+	private final File file;
+	private final Io io;
+
+	private FileOutputStream fileOut;
+
+	private final PacketLineOutput output = new PacketLineOutput();
+
+	FilePacketWriterService(Main main, File file) {
+		this(main, file, Io.STREAM);
+	}
+
+	FilePacketWriterService(Main main, File file, Io io) {
+		super(main);
+		this.file = checkNotNull(file);
+		this.io = checkNotNull(io);
+	}
+
+	@Override
+	protected void startUp() throws Exception {
+		log.info("Writing packets to " + file);
+		fileOut = new FileOutputStream(file);
+		if (io == Io.CHANNEL) {
+			output.setChannel(fileOut.getChannel());
+		} else {
+			output.setOutputStream(new BufferedOutputStream(fileOut));
+		}
+	}
+
+	@Override
+	protected void shutDown() throws Exception {
+		// Everything written has been flushed already
+		fileOut.close();
+	}
+
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		bufferPacket(packet);
+		flushPackets();
+	}
+
+	@Override
+	protected void bufferPacket(Packet packet) throws IOException {
+		output.put(packet);
+	}
+
+	@Override
+	protected void flushPackets() throws IOException {
+		output.flush();
+	}
+}
@@ -0,0 +1,106 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Determines how many packets a writer puts out per flush (and so, usually,
+// per system call).
+//
+// - immediate flushes after every packet.
+// - batch:N writes out every packet already waiting, up to N, then flushes.
+// It never waits for more packets to arrive.
+// - delay:MICROS keeps writing packets as they arrive until MICROS
+// microseconds have passed since the first, then flushes, so a burst of
+// packets goes out together at the cost of up to MICROS of latency.
+final class FlushPolicy {
+	static final FlushPolicy IMMEDIATE = new FlushPolicy(1, 0);
+
+	private final int maxBatch;
+	private final long maxDelayNanos;
+
+	private FlushPolicy(int maxBatch, long maxDelayNanos) {
+		this.maxBatch = maxBatch;
+		this.maxDelayNanos = maxDelayNanos;
+	}
+
+	static FlushPolicy batch(int maxBatch) {
+		checkArgument(maxBatch > 0, "Batch size must be positive");
+		return maxBatch == 1 ? IMMEDIATE : new FlushPolicy(maxBatch, 0);
+	}
+
+	static FlushPolicy delay(long maxDelayMicros) {
+		checkArgument(maxDelayMicros > 0, "Delay must be positive");
+		return new FlushPolicy(Integer.MAX_VALUE, TimeUnit.MICROSECONDS.toNanos(maxDelayMicros));
+	}
+
+	// Gets a policy from its name: "immediate", "batch:N", or
+	// "delay:MICROS". Returns null if str is not one of these.
+	static FlushPolicy forName(String str) {
+		if (str.equals("immediate")) {
+			return IMMEDIATE;
+		}
+
+		String[] parts = str.split(":", 2);
+		if (parts.length != 2) {
+			return null;
+		}
+
+		try {
+			switch (parts[0]) {
+			case "batch":
+				int maxBatch = Integer.parseInt(parts[1]);
+				return maxBatch > 0 ? batch(maxBatch) : null;
+			case "delay":
+				long maxDelayMicros = Long.parseLong(parts[1]);
+				return maxDelayMicros > 0 ? delay(maxDelayMicros) : null;
+			default:
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	// The most packets to write between flushes
+	int getMaxBatch() {
+		return maxBatch;
+	}
+
+	// How long to keep waiting for more packets after the first of a batch,
+	// or 0 to flush as soon as no more are waiting
+	long getMaxDelayNanos() {
+		return maxDelayNanos;
+	}
+
+	@Override
+	public String toString() {
+		if (maxDelayNanos > 0) {
+			return "delay:" + TimeUnit.NANOSECONDS.toMicros(maxDelayNanos);
+		}
+		return maxBatch == 1 ? "immediate" : "batch:" + maxBatch;
+	}
+}
@@ -0,0 +1,46 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+// Counters for the input side, registered with the platform MBean server as
+// us.hgk.rhythm.exp.sextetsinputtest:type=Input while the service runs.
+public interface InputMXBean {
+	// Key events handled, including those for unmapped keys
+	long getKeyEvents();
+
+	// Key events turned away because the input pipeline had stopped
+	long getKeyEventsDropped();
+
+	// Key events that changed the state, and so sent a packet
+	long getStateChanges();
+
+	long getPacketCacheHits();
+
+	long getPacketCacheMisses();
+
+	int getPacketCacheCapacity();
+
+	// Logs the latency histograms so far, if latency=on.
+	void logLatency();
+}
@@ -0,0 +1,103 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+// Takes key events off the input source's thread (for the window, the AWT
+// event dispatch thread). The input source only records each event into a
+// ring with post(); this service's thread takes them out and does the actual
+// work (mapping, encoding, and handing the packet to the writer) in
+// Main.keyUpdate(), so a slow update never holds up the next key event.
+public class InputPipelineService extends AbstractExecutionThreadService {
+	private static final Logger log = Logger.getLogger(InputPipelineService.class.getName());
+
+	private final KeyEventRing events = new KeyEventRing(1024);
+	private final WaitStrategy waitStrategy;
+
+	private volatile boolean continuing = true;
+
+	private final KeyEventRing.Handler handler;
+
+	private final WaitStrategy.Readiness eventReady = new WaitStrategy.Readiness() {
+		@Override
+		public boolean isReady() {
+			return !continuing || !events.isEmpty();
+		}
+	};
+
+	InputPipelineService(final Main main, WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+
+		handler = new KeyEventRing.Handler() {
+			@Override
+			public void keyEvent(int keyCode, boolean pressed, long when) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("Handling key event " + (System.currentTimeMillis() - when) + " ms after it occurred");
+				}
+				main.keyUpdate(keyCode, pressed, when);
+			}
+		};
+	}
+
+	// Records a key event for the pipeline thread. Only one thread (the
+	// input source's) may call this. when is the event's timestamp, in
+	// System.currentTimeMillis() terms. Returns false, dropping the event,
+	// if the pipeline thread has stopped.
+	boolean post(int keyCode, boolean pressed, long when) {
+		if (!events.put(keyCode, pressed, when)) {
+			return false;
+		}
+		waitStrategy.signal();
+		return true;
+	}
+
+	// True if every event posted so far has been handled.
+	boolean isIdle() {
+		return events.isEmpty();
+	}
+
+	@Override
+	protected void run() {
+		try {
+			while (continuing) {
+				if (events.drainTo(handler) == 0) {
+					waitStrategy.waitFor(eventReady);
+				}
+			}
+		} finally {
+			// However this thread ends, the input source mustn't wait on it
+			events.close();
+		}
+	}
+
+	@Override
+	protected void triggerShutdown() {
+		continuing = false;
+		waitStrategy.signal();
+	}
+}
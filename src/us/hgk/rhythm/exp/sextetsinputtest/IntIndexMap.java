@@ -0,0 +1,115 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.Arrays;
+
+// A map from non-negative ints to non-negative ints, using open addressing so
+// that lookups neither box nor allocate.
+final class IntIndexMap {
+	private static final int ABSENT = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	IntIndexMap(int expectedSize) {
+		int capacity = 8;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = newKeys(capacity);
+		values = new int[capacity];
+	}
+
+	// Gets the value for key, or -1 if there is none.
+	int get(int key) {
+		if (key < 0) {
+			return ABSENT;
+		}
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == key) {
+				return values[i];
+			} else if (k == ABSENT) {
+				return ABSENT;
+			}
+		}
+	}
+
+	void put(int key, int value) {
+		checkArgument(key >= 0, "Key must be non-negative");
+		checkArgument(value >= 0, "Value must be non-negative");
+
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		if (insert(keys, values, key, value)) {
+			++size;
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] newKeys = newKeys(capacity);
+		int[] newValues = new int[capacity];
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] != ABSENT) {
+				insert(newKeys, newValues, keys[i], values[i]);
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	// Returns true iff the key was not already present.
+	private static boolean insert(int[] keys, int[] values, int key, int value) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == ABSENT) {
+				keys[i] = key;
+				values[i] = value;
+				return true;
+			} else if (k == key) {
+				values[i] = value;
+				return false;
+			}
+		}
+	}
+
+	private static int[] newKeys(int capacity) {
+		int[] keys = new int[capacity];
+		Arrays.fill(keys, ABSENT);
+		return keys;
+	}
+
+	// Key codes cluster in small ranges; spread them before masking.
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
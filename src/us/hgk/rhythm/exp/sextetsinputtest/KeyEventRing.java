@@ -0,0 +1,126 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A preallocated ring of key events, passed from one producer thread (the
+// input source's) to one consumer thread. Events are stored as parallel
+// arrays of primitives, so adding and taking events allocates nothing.
+//
+// Key events are never dropped while the consumer runs; losing a release
+// would leave a key stuck down. If the ring is full, put() waits for the
+// consumer to make room. Once the consumer has stopped for good, it closes
+// the ring, and put() turns events away rather than waiting forever.
+final class KeyEventRing {
+
+	// Receives events taken from the ring
+	interface Handler {
+		void keyEvent(int keyCode, boolean pressed, long when);
+	}
+
+	private final int[] keyCodes;
+	private final boolean[] pressed;
+	private final long[] whens;
+	private final int mask;
+
+	// Number of events ever published, written by the producer
+	private final AtomicLong tail = new AtomicLong();
+	// Number of events ever taken, written by the consumer
+	private final AtomicLong head = new AtomicLong();
+
+	// Producer-only copy of head, refreshed when the ring looks full
+	private long cachedHead;
+
+	// Set by the consumer when it will take no more events
+	private volatile boolean closed;
+
+	// capacity is rounded up to a power of 2.
+	KeyEventRing(int capacity) {
+		checkArgument(capacity > 0, "Capacity must be positive");
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		keyCodes = new int[size];
+		pressed = new boolean[size];
+		whens = new long[size];
+		mask = size - 1;
+	}
+
+	// Producer side. Adds an event, yielding until there is room for it.
+	// Returns false, without adding the event, if the ring is closed.
+	boolean put(int keyCode, boolean isPressed, long when) {
+		long t = tail.get();
+		while (t - cachedHead >= keyCodes.length) {
+			cachedHead = head.get();
+			if (t - cachedHead >= keyCodes.length) {
+				if (closed) {
+					return false;
+				}
+				Thread.yield();
+			}
+		}
+		if (closed) {
+			return false;
+		}
+
+		int i = (int) t & mask;
+		keyCodes[i] = keyCode;
+		pressed[i] = isPressed;
+		whens[i] = when;
+		tail.set(t + 1);
+		return true;
+	}
+
+	// Consumer side. Passes every waiting event, oldest first, to handler,
+	// and returns the number of events passed.
+	int drainTo(Handler handler) {
+		long h = head.get();
+		long t = tail.get();
+		int count = 0;
+		while (h < t) {
+			int i = (int) h & mask;
+			handler.keyEvent(keyCodes[i], pressed[i], whens[i]);
+			head.lazySet(++h);
+			++count;
+		}
+		return count;
+	}
+
+	// Consumer side. Turns away every later put(), and releases any put()
+	// waiting for room.
+	void close() {
+		closed = true;
+	}
+
+	// Either side. True if no event is waiting.
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+}
@@ -24,6 +24,8 @@
 package us.hgk.rhythm.exp.sextetsinputtest;
 
 import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -35,11 +37,15 @@ import java.util.logging.Logger;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
 
 import com.google.common.util.concurrent.AbstractIdleService;
 
-public class KeyPressWindowService extends AbstractIdleService {
+// Takes key events from a window, which must have the keyboard focus, and
+// shows the current state in it.
+public class KeyPressWindowService extends AbstractIdleService implements InputSourceService {
 	private static final Logger log = Logger.getLogger(KeyPressWindowService.class.getName());
 
 	private JFrame frame;
@@ -48,23 +54,46 @@ public class KeyPressWindowService extends AbstractIdleService {
 	private KeyListener kl;
 	private WindowListener wl;
 
-	public KeyPressWindowService(final Main main) {
+	private final Main main;
+
+	// Refreshes the label, on the event dispatch thread, at most refreshRate
+	// times per second, and only if the state has changed since last time
+	private final int refreshRate;
+	private Timer refreshTimer;
+	private ActionListener refresher;
+	private Packet shownPacket;
+
+	public KeyPressWindowService(final Main main, int refreshRate) {
+		this.main = main;
+		this.refreshRate = refreshRate;
+
 		kl = new KeyAdapter() {
 			@Override
 			public void keyPressed(KeyEvent e) {
-				main.keyUpdate(e.getKeyCode(), true);
+				main.keyEvent(e.getKeyCode(), true, e.getWhen());
 			}
 
 			@Override
 			public void keyReleased(KeyEvent e) {
-				main.keyUpdate(e.getKeyCode(), false);
+				main.keyEvent(e.getKeyCode(), false, e.getWhen());
+			}
+		};
+
+		refresher = new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Packet packet = main.getCurrentPacket();
+				if (packet != shownPacket && label != null) {
+					shownPacket = packet;
+					label.setText("State: " + packet.getData());
+				}
 			}
 		};
 
 		wl = new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
-				main.windowClosing();
+				main.inputClosed();
 			}
 		};
 	}
@@ -85,6 +114,12 @@ public class KeyPressWindowService extends AbstractIdleService {
 		frame.addWindowListener(wl);
 		
 		frame.setVisible(true);
+
+		// The initial text stays up until the state first changes
+		shownPacket = main.getCurrentPacket();
+		refreshTimer = new Timer(1000 / refreshRate, refresher);
+		refreshTimer.setCoalesce(true);
+		refreshTimer.start();
 		
 		log.finer("KPW setup OK");
 	}
@@ -93,11 +128,21 @@ public class KeyPressWindowService extends AbstractIdleService {
 	protected void shutDown() throws Exception {
 		log.finer("Shutting down KPW");
 		
-		frame.setVisible(false);
-		frame.dispose();
-		frame = null;
-		panel = null;
-		label = null;
+		// A refresh may already be queued on the event dispatch thread, so
+		// the teardown happens there too, where no refresh can see it half
+		// done
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				refreshTimer.stop();
+				refreshTimer = null;
+				frame.setVisible(false);
+				frame.dispose();
+				frame = null;
+				panel = null;
+				label = null;
+			}
+		});
 		
 		log.finer("KPW shutdown OK");
 	}
@@ -124,10 +169,4 @@ public class KeyPressWindowService extends AbstractIdleService {
 		return frame;
 	}
 
-	public void setLabelText(String string) {
-		if(isRunning()) {
-			label.setText(string);
-		}
-	}
-
 }
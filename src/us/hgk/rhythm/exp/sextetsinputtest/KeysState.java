@@ -23,115 +23,263 @@
 
 package us.hgk.rhythm.exp.sextetsinputtest;
 
-import java.util.HashSet;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Logger;
 
+// The set of currently pressed keys.
+//
+// Writers never block readers, and readers never block anything: the state is
+// guarded by a sequence lock. The version counter is odd while a write is in
+// progress and even otherwise; a reader copies what it needs between two
+// reads of the counter and retries if the counter moved. Concurrent writers
+// (not expected in practice) take turns by CASing the counter to odd.
+//
+// Alongside the bitset, the encoded form of every sextet is kept up to date,
+// so a change re-encodes only the sextet it touched and getAsPacket() is a
+// copy rather than an encode. Packets for recently seen states are cached,
+// so returning to one of them (as chords come and go) skips even the copy.
+// The cache belongs to the caller of getAsPacket(), which works from its own
+// consistent copy of the encoded state, so only one thread may call that.
 public class KeysState {
 	@SuppressWarnings("unused")
 	private static final Logger log = Logger.getLogger(KeysState.class.getName());
 
-	private HashSet<Integer> pressedKeyCodes;
+	// Enough for every key code below 256 before the first resize.
+	private static final int INITIAL_WORD_COUNT = 4;
+
+	private static final int PACKET_CACHE_CAPACITY = 256;
+
+	private final AtomicLong version = new AtomicLong();
+
+	// Pressed key codes as a bitset; bit (keyCode % 64) of word (keyCode / 64)
+	// is set iff that key is pressed. Replaced (within a write) only when it
+	// needs to grow.
+	private volatile AtomicLongArray words;
+
+	// The highest key code currently pressed, or -1 if none are.
+	private volatile int highestSetBit;
+
+	// encoded[i] is the encoded form of sextet i, for every sextet the words
+	// can hold; the sextets past the highest set bit encode 0. Only the first
+	// encodedLength bytes make up the packet. Both fields are only changed
+	// while holding the write side.
+	private byte[] encoded;
+	private int encodedLength;
+
+	// XOR of fingerprintOf() over the pressed key codes, so that it can be
+	// updated one key at a time. Only changed while holding the write side.
+	private long fingerprint;
+
+	// Only touched by the caller of getAsPacket(), as is the copy of the
+	// encoded state it looks packets up by.
+	private final PacketCache packetCache = new PacketCache(PACKET_CACHE_CAPACITY);
+	private byte[] encodedCopy = new byte[0];
 
 	KeysState() {
-		this.pressedKeyCodes = new HashSet<>();
+		this.words = new AtomicLongArray(INITIAL_WORD_COUNT);
+		this.highestSetBit = -1;
+		this.encoded = newEncodedCache(INITIAL_WORD_COUNT, 0);
+		this.encodedLength = SextetEncoder.sextetCount(-1);
 	}
 
 	// Updates the pressed state of the given keyCode.
 	// Returns true iff the state actually changed.
 	boolean update(int keyCode, boolean pressed) {
-		synchronized (this) {
+		if (keyCode < 0) {
+			// Not representable in a packet
+			return false;
+		}
+
+		int wordIndex = keyCode >>> 6;
+		long mask = 1L << keyCode;
+
+		// Key repeat sends the same press over and over; settle that case
+		// without touching the version.
+		if (isAlready(wordIndex, mask, pressed)) {
+			return false;
+		}
+
+		long writingVersion = beginWrite();
+		try {
+			AtomicLongArray w = words;
+
 			if (pressed) {
-				return pressedKeyCodes.add(keyCode);
+				if (wordIndex >= w.length()) {
+					// Only happens the first time a higher key code is seen
+					w = grow(w, max(wordIndex + 1, w.length() * 2));
+					words = w;
+					encoded = newEncodedCache(w.length(), encoded.length);
+				}
+
+				long word = w.get(wordIndex);
+				w.set(wordIndex, word | mask);
+
+				if (keyCode > highestSetBit) {
+					highestSetBit = keyCode;
+				}
 			} else {
-				return pressedKeyCodes.remove(keyCode);
+				long word = w.get(wordIndex);
+				w.set(wordIndex, word & ~mask);
+
+				if (keyCode == highestSetBit) {
+					highestSetBit = findHighestSetBit(w, wordIndex);
+				}
 			}
+
+			int sextetIndex = keyCode / 6;
+			encoded[sextetIndex] = SextetEncoder.encode(sextetValueAt(w, sextetIndex));
+			encodedLength = SextetEncoder.sextetCount(highestSetBit);
+			fingerprint ^= fingerprintOf(keyCode);
+		} finally {
+			endWrite(writingVersion);
 		}
+		// A racing writer may have made the same change first, in which case
+		// this bumped the version for nothing; harmless, and not worth a
+		// second check under the lock.
+		return true;
 	}
 
-	@SuppressWarnings("unchecked")
-	private HashSet<Integer> getClone() {
-		synchronized (this) {
-			return (HashSet<Integer>) pressedKeyCodes.clone();
+	private boolean isAlready(int wordIndex, long mask, boolean pressed) {
+		AtomicLongArray w = words;
+		if (wordIndex >= w.length()) {
+			return !pressed;
 		}
+		boolean isSet = (w.get(wordIndex) & mask) != 0;
+		return isSet == pressed;
 	}
 
-	Packet getAsPacket() {
-		HashSet<Integer> si = getClone();
-
-		Integer lastSetIndex0 = maxInteger(si);
+	// Waits for any other writer to finish, then makes the version odd.
+	// Returns the odd version.
+	private long beginWrite() {
+		for (;;) {
+			long v = version.get();
+			if ((v & 1) == 0 && version.compareAndSet(v, v + 1)) {
+				return v + 1;
+			}
+		}
+	}
 
-		int lastSetIndex = (lastSetIndex0 == null) ? -1 : lastSetIndex0;
-		int pastSetIndex = lastSetIndex + 1;
+	private void endWrite(long writingVersion) {
+		version.set(writingVersion + 1);
+	}
 
-		int sextetsToEncode = ceilOfNDiv6(pastSetIndex);
-		if (sextetsToEncode == 0) {
-			// A packet of all 0s is encoded overlong to distinguish it from a
-			// blank line.
-			sextetsToEncode = 1;
+	// Waits for any in-progress write to finish, then returns the (even)
+	// version.
+	private long beginRead() {
+		for (;;) {
+			long v = version.get();
+			if ((v & 1) == 0) {
+				return v;
+			}
 		}
+	}
+
+	private boolean isReadValid(long readingVersion) {
+		return version.get() == readingVersion;
+	}
 
-		char[] packetData = new char[sextetsToEncode];
-		boolean[] b = new boolean[6];
+	// Gets the packet for the current state. Only one thread may call this.
+	Packet getAsPacket() {
+		byte[] copy = encodedCopy;
+		int length;
+		long copiedFingerprint;
+		for (;;) {
+			long v = beginRead();
 
-		for (int i = 0; i < sextetsToEncode; ++i) {
-			for (int j = 0; j < 6; ++j) {
-				int fullIndex = (i * 6) + j;
-				b[j] = si.contains(fullIndex);
+			byte[] e = encoded;
+			length = encodedLength;
+			copiedFingerprint = fingerprint;
+			// A racing grow may pair a new length with the old array; the
+			// version check below throws such a read away.
+			if (length <= e.length) {
+				if (copy.length < e.length) {
+					copy = new byte[e.length];
+				}
+				System.arraycopy(e, 0, copy, 0, length);
 			}
 
-			packetData[i] = getSextet(b[0], b[1], b[2], b[3], b[4], b[5]);
+			// The copy is plain loads, which the version check must not
+			// be reordered ahead of
+			VarHandle.acquireFence();
+			if (length <= e.length && isReadValid(v)) {
+				break;
+			}
 		}
+		encodedCopy = copy;
 
-		return Packet.get(String.valueOf(packetData));
+		Packet packet = packetCache.get(copiedFingerprint, copy, length);
+		if (packet == null) {
+			packet = Packet.get(copy, length);
+			packetCache.put(copiedFingerprint, packet);
+		}
+		return packet;
 	}
 
-	private char getSextet(int value) {
-		// Keeps the low 6 bits, sets the bits above to form printable non-space
-		// ASCII
-		int n = (((value + 0x10) & 0x3F) + 0x30);
-		return (char) n;
+	PacketCache getPacketCache() {
+		return packetCache;
 	}
 
-	private char getSextet(boolean b0, boolean b1, boolean b2, boolean b3, boolean b4, boolean b5) {
-		int sextetValue =
-				(b0 ? 0x01 : 0) |
-				(b1 ? 0x02 : 0) |
-				(b2 ? 0x04 : 0) |
-				(b3 ? 0x08 : 0) |
-				(b4 ? 0x10 : 0) |
-				(b5 ? 0x20 : 0);
+	// Gets bits (6 * sextetIndex) through (6 * sextetIndex + 5) as an int, the
+	// lowest-numbered bit in the lowest position. A sextet may straddle two
+	// words. Bits past the end of the array read as 0.
+	private static int sextetValueAt(AtomicLongArray words, int sextetIndex) {
+		int firstBit = sextetIndex * 6;
+		int wordIndex = firstBit >>> 6;
+		int offset = firstBit & 0x3F;
+		int length = words.length();
+
+		long value = (wordIndex < length) ? (words.get(wordIndex) >>> offset) : 0;
+		if (offset > 64 - 6 && wordIndex + 1 < length) {
+			value |= words.get(wordIndex + 1) << (64 - offset);
+		}
+		return (int) (value & 0x3F);
+	}
 
-		return getSextet(sextetValue);
+	// Scatters key codes over 64 bits (the SplitMix64 finalizer), so that XORs
+	// of them rarely collide.
+	private static long fingerprintOf(int keyCode) {
+		long z = keyCode + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
 	}
 
-	// Scans a sequence for the largest non-null integer value, or returns null
-	// if there are no non-null values.
-	private static Integer maxInteger(Iterable<Integer> si) {
-		Integer result = null;
-
-		for (Integer n : si) {
-			if (n == null) {
-				// skip nulls
-			} else if (result == null) {
-				// anything replaces null
-				result = n;
-			} else {
-				// n and result are both non-null
-				result = max(result, n);
+	// Scans downward from word fromWordIndex for the highest set bit, or
+	// returns -1 if there are no set bits at or below that word.
+	private static int findHighestSetBit(AtomicLongArray words, int fromWordIndex) {
+		for (int i = fromWordIndex; i >= 0; --i) {
+			long word = words.get(i);
+			if (word != 0) {
+				return (i << 6) + (63 - Long.numberOfLeadingZeros(word));
 			}
 		}
+		return -1;
+	}
+
+	private static AtomicLongArray grow(AtomicLongArray words, int newLength) {
+		AtomicLongArray grown = new AtomicLongArray(newLength);
+		for (int i = 0; i < words.length(); ++i) {
+			grown.set(i, words.get(i));
+		}
+		return grown;
+	}
 
-		return result;
+	// Gets a cache large enough for wordCount words of bits, holding the
+	// first oldLength entries of the current cache followed by encoded 0s.
+	private byte[] newEncodedCache(int wordCount, int oldLength) {
+		byte[] cache = new byte[(wordCount * 64 + 5) / 6];
+		if (oldLength > 0) {
+			System.arraycopy(encoded, 0, cache, 0, oldLength);
+		}
+		Arrays.fill(cache, oldLength, cache.length, SextetEncoder.encode(0));
+		return cache;
 	}
 
 	private static int max(int a, int b) {
 		return (a > b) ? a : b;
 	}
 
-	// In so many words, ceil(n/6), but without the floating-point part.
-	// Returns the minimum number of sextets required to hold n bits.
-	private static int ceilOfNDiv6(int n) {
-		return (n + 5) / 6;
-	}
-
 }
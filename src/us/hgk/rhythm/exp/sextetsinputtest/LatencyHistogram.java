@@ -0,0 +1,134 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A histogram of latencies, in nanoseconds, recorded by one thread and read by
+// any. Everything is allocated up front, so record() never allocates.
+//
+// Buckets are log-linear: below 8 ns each value has its own bucket, and above
+// that each power of 2 is split into 8 buckets, so a percentile is reported
+// to within 12.5% across the whole range of long.
+final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	// Written only by the recording thread
+	private volatile long count;
+	private volatile long sum;
+	private volatile long max;
+
+	LatencyHistogram(String name) {
+		this.name = checkNotNull(name);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	// Recording thread only. Negative values, as from a clock step, count as
+	// 0.
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int i = bucketOf(nanos);
+		counts.lazySet(i, counts.get(i) + 1);
+		sum += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+		count++;
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+	}
+
+	// The largest value that falls in bucket i
+	private static long highestIn(int i) {
+		if (i + 1 >= BUCKETS) {
+			return Long.MAX_VALUE;
+		}
+		int next = i + 1;
+		if (next < SUB_BUCKETS) {
+			return next - 1;
+		}
+		int magnitude = (next >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		long lowestOfNext = (long) (SUB_BUCKETS + (next & (SUB_BUCKETS - 1))) << (magnitude - SUB_BUCKET_BITS);
+		return lowestOfNext - 1;
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	long getMax() {
+		return max;
+	}
+
+	double getMean() {
+		long n = count;
+		return n == 0 ? 0 : (double) sum / n;
+	}
+
+	// Gets a value at least as large as the given fraction (0 .. 1) of the
+	// recorded values, to within a bucket; 0 if nothing has been recorded.
+	long getPercentile(double fraction) {
+		long n = count;
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestIn(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"%s: n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", name, getCount(),
+				getMean() / 1000, getPercentile(0.5) / 1000.0, getPercentile(0.9) / 1000.0,
+				getPercentile(0.99) / 1000.0, getPercentile(0.999) / 1000.0, getMax() / 1000.0);
+	}
+}
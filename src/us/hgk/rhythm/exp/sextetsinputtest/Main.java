@@ -23,33 +23,75 @@
 
 package us.hgk.rhythm.exp.sextetsinputtest;
 
+import static com.google.common.base.Preconditions.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.base.Joiner;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
 import com.google.common.util.concurrent.Service.State;
 
-public class Main {
+public class Main implements InputMXBean {
 	private static final Logger log = Logger.getLogger(Main.class.getName());
 
+	private static final String JMX_DOMAIN = Main.class.getPackage().getName();
+
 	private KeysState keysState = new KeysState();
+	private final KeyCodeMapper keyCodeMapper;
+
+	// Whether the packet following a key press is pinned in the writer's
+	// mailbox, so that it survives conflation
+	private final boolean keepPresses;
+
+	// The packet for the current state, as last sent to the writer
+	private volatile Packet currentPacket = keysState.getAsPacket();
 
 	private ServiceManager manager;
 
-	private PacketWriterService writer;
+	// One for each sink; every packet goes to all of them
+	private PacketWriterService[] writers;
+
+	// Counters for InputMXBean
+	private final LongAdder keyEvents = new LongAdder();
+	private final LongAdder keyEventsDropped = new LongAdder();
+	private final LongAdder stateChanges = new LongAdder();
+
+	// Names of the MBeans registered for this run, to unregister at the end
+	private final List<ObjectName> registeredMBeans = new ArrayList<>();
+
+	// Null unless latency recording is on. Recorded only by the input
+	// pipeline thread.
+	private LatencyHistogram eventToArrival;
+	private LatencyHistogram arrivalToEnqueue;
 	private WatchdogService watchdog;
-	private KeyPressWindowService window;
+	private InputPipelineService inputPipeline;
+	private InputSourceService input;
 
 	// Gets a Service.Listener that requests the ServiceManager to stop on
 	// receipt of a failed, stopping, or terminated event from any of the
@@ -92,19 +134,72 @@ public class Main {
 		abstract PacketWriterService create(Main main);
 	}
 
-	Main(long interval, PacketWriterServiceFactory writerFactory) {
+	// Main never names an input source class except through one of these,
+	// so that only the one in use is ever loaded
+	private abstract static class InputSourceServiceFactory {
+		abstract InputSourceService create(Main main);
+	}
+
+	Main(long interval, KeyCodeMapper keyCodeMapper, boolean keepPresses, WaitStrategy waitStrategy,
+			boolean recordLatency, InputSourceServiceFactory inputFactory,
+			List<PacketWriterServiceFactory> writerFactories) {
+		checkArgument(!writerFactories.isEmpty(), "At least one writer is required");
+		this.keyCodeMapper = keyCodeMapper;
+		this.keepPresses = keepPresses;
+
+		if (recordLatency) {
+			// Event timestamps have only millisecond resolution
+			eventToArrival = new LatencyHistogram("event to arrival (ms resolution)");
+			arrivalToEnqueue = new LatencyHistogram("arrival to enqueue");
+		}
+
 		Set<Service> services = new HashSet<>();
 
-		writer = writerFactory.create(this);
-		services.add(writer);
+		// Each writer has its own mailbox and thread, so a slow one only
+		// falls behind itself.
+		List<PacketWriterService> writerList = new ArrayList<>();
+		for (PacketWriterServiceFactory writerFactory : writerFactories) {
+			PacketWriterService writer = writerFactory.create(this);
+			writer.setWaitStrategy(waitStrategy.duplicate());
+			if (recordLatency) {
+				writer.enableLatencyRecording();
+			}
+			writer.addListener(createMutualStopListener(writer.getClass().getSimpleName()),
+					MoreExecutors.directExecutor());
+			writerList.add(writer);
+			services.add(writer);
+		}
+		writers = writerList.toArray(new PacketWriterService[writerList.size()]);
 
 		watchdog = createWatchdog(interval);
 		services.add(watchdog);
 
-		window = createKeyPressWindow();
-		services.add(window);
+		inputPipeline = createInputPipeline(waitStrategy);
+		services.add(inputPipeline);
+
+		input = createInput(inputFactory);
+		services.add(input);
 
 		manager = new ServiceManager(services);
+		manager.addListener(new ServiceManager.Listener() {
+			@Override
+			public void stopped() {
+				log.info("Packet cache: " + keysState.getPacketCache());
+				for (PacketWriterService writer : writers) {
+					log.info(writer.getClass().getSimpleName() + ": " + writer.getPacketsWritten()
+							+ " packets written, " + writer.getPacketsConflated() + " packets conflated, "
+							+ writer.getPressesDropped() + " presses dropped");
+				}
+				logLatency();
+				unregisterMBeans();
+			}
+		}, MoreExecutors.directExecutor());
+
+		registerMBean(this, "type=Input");
+		registerMBean(watchdog, "type=Watchdog");
+		for (PacketWriterService writer : writers) {
+			registerMBean(writer, "type=Writer,name=" + writer.getClass().getSimpleName());
+		}
 
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			public void run() {
@@ -120,28 +215,41 @@ public class Main {
 		manager.startAsync();
 	}
 
-	Main(final long interval) {
-		this(interval, new PacketWriterServiceFactory() {
-			@Override
-			PacketWriterService create(Main main) {
-				return main.createPacketWriter();
-			}
-		});
+	// Registers an MBean with the platform MBean server under properties in
+	// this package's domain. A failure is only logged; the counters are a
+	// convenience, not something to stop for.
+	private void registerMBean(Object mbean, String properties) {
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			registeredMBeans.add(name);
+		} catch (JMException e) {
+			log.warning("Could not register MBean " + properties + ": " + e.getMessage());
+		}
 	}
 
-	Main(final String host, final int port, final long interval) {
-		this(interval, new PacketWriterServiceFactory() {
-			@Override
-			PacketWriterService create(Main main) {
-				return main.createPacketWriter(host, port);
+	private void unregisterMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registeredMBeans) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				log.fine("Could not unregister MBean " + name + ": " + e.getMessage());
 			}
-		});
+		}
+		registeredMBeans.clear();
 	}
 
-	private KeyPressWindowService createKeyPressWindow() {
-		KeyPressWindowService keyPressWindow = new KeyPressWindowService(this);
-		keyPressWindow.addListener(createMutualStopListener("KeyPressWindowService"), MoreExecutors.directExecutor());
-		return keyPressWindow;
+	private InputSourceService createInput(InputSourceServiceFactory inputFactory) {
+		InputSourceService input = inputFactory.create(this);
+		input.addListener(createMutualStopListener(input.getClass().getSimpleName()), MoreExecutors.directExecutor());
+		return input;
+	}
+
+	private InputPipelineService createInputPipeline(WaitStrategy waitStrategy) {
+		InputPipelineService inputPipeline = new InputPipelineService(this, waitStrategy);
+		inputPipeline.addListener(createMutualStopListener("InputPipelineService"), MoreExecutors.directExecutor());
+		return inputPipeline;
 	}
 
 	private WatchdogService createWatchdog(long intervalMillis) {
@@ -151,25 +259,130 @@ public class Main {
 		return watchdog;
 	}
 
-	private PacketWriterService createPacketWriter(String host, int port) {
-		PacketWriterService writer = new TcpPacketWriterService(this, host, port);
-		writer.addListener(createMutualStopListener("TcpPacketWriterService"), MoreExecutors.directExecutor());
-		return writer;
+	private static InputSourceServiceFactory windowInputFactory(final int refreshRate) {
+		return new InputSourceServiceFactory() {
+			@Override
+			InputSourceService create(Main main) {
+				return new KeyPressWindowService(main, refreshRate);
+			}
+		};
+	}
+
+	// file is null for standard input
+	private static InputSourceServiceFactory streamInputFactory(final File file) {
+		return new InputSourceServiceFactory() {
+			@Override
+			InputSourceService create(Main main) {
+				return new StreamInputService(main, file);
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory stdoutWriterFactory(final PacketWriterService.Io io,
+			final FlushPolicy flushPolicy) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				PacketWriterService writer = new StdoutPacketWriterService(main, io);
+				writer.setFlushPolicy(flushPolicy);
+				return writer;
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory fileWriterFactory(final File file, final PacketWriterService.Io io,
+			final FlushPolicy flushPolicy) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				PacketWriterService writer = new FilePacketWriterService(main, file, io);
+				writer.setFlushPolicy(flushPolicy);
+				return writer;
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory tcpWriterFactory(final String host, final int port,
+			final boolean persist, final PacketWriterService.Io io, final TcpSocketOptions socketOptions,
+			final FlushPolicy flushPolicy) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				PacketWriterService writer = new TcpPacketWriterService(main, host, port, persist, io, socketOptions);
+				writer.setFlushPolicy(flushPolicy);
+				return writer;
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory multiClientTcpWriterFactory(final String host, final int port,
+			final MultiClientTcpPacketWriterService.SlowClientPolicy slowClientPolicy, final long stallMillis,
+			final TcpSocketOptions socketOptions) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				return new MultiClientTcpPacketWriterService(main, host, port, slowClientPolicy, stallMillis,
+						socketOptions);
+			}
+		};
 	}
 
-	private PacketWriterService createPacketWriter() {
-		PacketWriterService writer = new StdoutPacketWriterService(this);
-		writer.addListener(createMutualStopListener("StdoutPacketWriterService"), MoreExecutors.directExecutor());
-		return writer;
+	private static PacketWriterServiceFactory unixWriterFactory(final Path socketPath, final boolean persist,
+			final PacketWriterService.Io io, final FlushPolicy flushPolicy) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				PacketWriterService writer = new UnixPacketWriterService(main, socketPath, persist, io);
+				writer.setFlushPolicy(flushPolicy);
+				return writer;
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory udpWriterFactory(final String host, final int port,
+			final int multicastTtl, final String multicastInterface) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				return new UdpPacketWriterService(main, host, port, multicastTtl, multicastInterface);
+			}
+		};
+	}
+
+	private static PacketWriterServiceFactory shmWriterFactory(final File file) {
+		return new PacketWriterServiceFactory() {
+			@Override
+			PacketWriterService create(Main main) {
+				return new ShmPacketWriterService(main, file);
+			}
+		};
 	}
 
 	public static void main(String[] args) {
 		Map<String, String> parameters = new HashMap<>();
 
-		boolean hasMode = false, hasHost = false, hasPort = false, hasInterval = false;
-		String mode = null, host = null;
+		boolean hasMode = false, hasHost = false, hasPort = false, hasInterval = false, hasKeymap = false,
+				hasClients = false, hasPersist = false, hasSlow = false, hasStall = false, hasPresses = false,
+				hasWait = false, hasFps = false, hasIo = false, hasNodelay = false, hasSndbuf = false,
+				hasFlush = false, hasTtl = false, hasIface = false, hasShmfile = false, hasSocket = false,
+				hasFile = false, hasLatency = false, hasInput = false;
+		String mode = null, host = null, clients = null, iface = null, shmfile = null, socket = null, file = null,
+				input = null;
+		int ttl = 0;
+		boolean persist = false;
+		boolean keepPresses = true;
+		boolean recordLatency = false;
+		MultiClientTcpPacketWriterService.SlowClientPolicy slowClientPolicy = null;
+		Long stall = null;
 		Integer port = null;
 		Long interval = null;
+		Integer fps = null;
+		PacketWriterService.Io io = null;
+		Boolean nodelay = null;
+		int sndbuf = 0;
+		KeyCodeMapper keyCodeMapper = null;
+		WaitStrategy waitStrategy = null;
+		FlushPolicy flushPolicy = null;
 
 		try {
 			for (String arg : args) {
@@ -198,6 +411,33 @@ public class Main {
 					ensureNotSet("port", hasPort);
 					hasPort = true;
 					port = parseIntParameter("port", value);
+					if (port < 0 || port > 0xFFFF) {
+						throw new IllegalArgumentException("Parameter 'port' must be from 0 to 65535");
+					}
+					break;
+
+				case "clients":
+					ensureNotSet("clients", hasClients);
+					hasClients = true;
+					clients = value;
+					break;
+
+				case "persist":
+					ensureNotSet("persist", hasPersist);
+					hasPersist = true;
+					persist = parseBooleanParameter("persist", value);
+					break;
+
+				case "slow":
+					ensureNotSet("slow", hasSlow);
+					hasSlow = true;
+					slowClientPolicy = parseSlowParameter("slow", value);
+					break;
+
+				case "stall":
+					ensureNotSet("stall", hasStall);
+					hasStall = true;
+					stall = parseLongParameter("stall", value);
 					break;
 
 				case "interval":
@@ -206,6 +446,102 @@ public class Main {
 					interval = parseLongParameter("interval", value);
 					break;
 
+				case "keymap":
+					ensureNotSet("keymap", hasKeymap);
+					hasKeymap = true;
+					keyCodeMapper = parseKeymapParameter("keymap", value);
+					break;
+
+				case "presses":
+					ensureNotSet("presses", hasPresses);
+					hasPresses = true;
+					keepPresses = parsePressesParameter("presses", value);
+					break;
+
+				case "fps":
+					ensureNotSet("fps", hasFps);
+					hasFps = true;
+					fps = parseIntParameter("fps", value);
+					break;
+
+				case "io":
+					ensureNotSet("io", hasIo);
+					hasIo = true;
+					io = parseIoParameter("io", value);
+					break;
+
+				case "nodelay":
+					ensureNotSet("nodelay", hasNodelay);
+					hasNodelay = true;
+					nodelay = parseBooleanParameter("nodelay", value);
+					break;
+
+				case "sndbuf":
+					ensureNotSet("sndbuf", hasSndbuf);
+					hasSndbuf = true;
+					sndbuf = parseIntParameter("sndbuf", value);
+					if (sndbuf <= 0) {
+						throw new IllegalArgumentException("Parameter 'sndbuf' must be positive");
+					}
+					break;
+
+				case "ttl":
+					ensureNotSet("ttl", hasTtl);
+					hasTtl = true;
+					ttl = parseIntParameter("ttl", value);
+					if (ttl < 1 || ttl > 255) {
+						throw new IllegalArgumentException("Parameter 'ttl' must be from 1 to 255");
+					}
+					break;
+
+				case "iface":
+					ensureNotSet("iface", hasIface);
+					hasIface = true;
+					iface = value;
+					break;
+
+				case "socket":
+					ensureNotSet("socket", hasSocket);
+					hasSocket = true;
+					socket = value;
+					break;
+
+				case "file":
+					ensureNotSet("file", hasFile);
+					hasFile = true;
+					file = value;
+					break;
+
+				case "shmfile":
+					ensureNotSet("shmfile", hasShmfile);
+					hasShmfile = true;
+					shmfile = value;
+					break;
+
+				case "flush":
+					ensureNotSet("flush", hasFlush);
+					hasFlush = true;
+					flushPolicy = parseFlushParameter("flush", value);
+					break;
+
+				case "latency":
+					ensureNotSet("latency", hasLatency);
+					hasLatency = true;
+					recordLatency = parseOnOffParameter("latency", value);
+					break;
+
+				case "input":
+					ensureNotSet("input", hasInput);
+					hasInput = true;
+					input = value;
+					break;
+
+				case "wait":
+					ensureNotSet("wait", hasWait);
+					hasWait = true;
+					waitStrategy = parseWaitParameter("wait", value);
+					break;
+
 				default:
 					throw new IllegalArgumentException("Unrecognized parameter name '" + key + "'");
 				}
@@ -220,36 +556,222 @@ public class Main {
 			usage("Parameter error: " + e.getMessage());
 		}
 
-		if (hasMode) {
-			switch (mode) {
-			case "tcp":
-			case "stdout":
-				break;
-			default:
-				throw new IllegalArgumentException("Parameter 'mode' must be set to 'tcp' or 'stdout' or be omitted");
+		// Like those above, the checks of parameters against each other show the
+		// usage on failure
+		InputSourceServiceFactory inputFactory = null;
+		List<PacketWriterServiceFactory> writerFactories = new ArrayList<>();
+		try {
+			Set<String> modes = new LinkedHashSet<>();
+			if (hasMode) {
+				for (String m : mode.split(",", -1)) {
+					switch (m) {
+					case "stdout":
+					case "file":
+					case "tcp":
+					case "unix":
+					case "udp":
+					case "shm":
+						break;
+					default:
+						throw new IllegalArgumentException("Parameter 'mode' must be set to one or more of 'stdout', "
+								+ "'file', 'tcp', 'unix', 'udp', and 'shm', separated by commas, or be omitted");
+					}
+					if (!modes.add(m)) {
+						throw new IllegalArgumentException("Mode '" + m + "' was given more than once");
+					}
+				}
+			} else {
+				modes.add(hasPort ? "tcp" : "stdout");
 			}
-		} else {
-			mode = hasPort ? "tcp" : "stdout";
-		}
 
-		if (!hasInterval) {
-			interval = 1000L;
-		}
+			if (modes.contains("tcp") && modes.contains("udp")) {
+				throw new IllegalArgumentException(
+						"Modes 'tcp' and 'udp' can't be combined, since both use the parameters 'host' and 'port'");
+			}
+
+			ensureUsedByMode("host", hasHost, modes, "tcp", "udp");
+			ensureUsedByMode("port", hasPort, modes, "tcp", "udp");
+			ensureUsedByMode("clients", hasClients, modes, "tcp");
+			ensureUsedByMode("persist", hasPersist, modes, "tcp", "unix");
+			ensureUsedByMode("nodelay", hasNodelay, modes, "tcp");
+			ensureUsedByMode("sndbuf", hasSndbuf, modes, "tcp");
+			ensureUsedByMode("ttl", hasTtl, modes, "udp");
+			ensureUsedByMode("iface", hasIface, modes, "udp");
+			ensureUsedByMode("socket", hasSocket, modes, "unix");
+			ensureUsedByMode("shmfile", hasShmfile, modes, "shm");
+			ensureUsedByMode("file", hasFile, modes, "file");
+
+			if (hasClients) {
+				switch (clients) {
+				case "single":
+				case "multi":
+					break;
+				default:
+					throw new IllegalArgumentException("Parameter 'clients' must be set to 'single' or 'multi' or be omitted");
+				}
+			} else {
+				clients = "single";
+			}
+
+			if ((hasSlow || hasStall) && !clients.equals("multi")) {
+				throw new IllegalArgumentException("Parameters 'slow' and 'stall' require clients=multi");
+			}
+
+			if (!hasWait) {
+				waitStrategy = new WaitStrategy.Blocking();
+			}
+
+			// clients=multi writes to its clients its own way
+			boolean tcpMultiClient = modes.contains("tcp") && clients.equals("multi");
+			if ((hasIo || hasFlush) && tcpMultiClient && modes.size() == 1) {
+				throw new IllegalArgumentException("Parameters 'io' and 'flush' must be unset when clients=multi");
+			}
+			String[] streamModes = tcpMultiClient ? new String[] { "stdout", "file", "unix" }
+					: new String[] { "stdout", "file", "tcp", "unix" };
+			ensureUsedByMode("io", hasIo, modes, streamModes);
+			ensureUsedByMode("flush", hasFlush, modes, streamModes);
+
+			if (!hasFlush) {
+				flushPolicy = FlushPolicy.IMMEDIATE;
+			}
+
+			if (!hasIo) {
+				io = PacketWriterService.Io.STREAM;
+			}
+
+			if (!hasSlow) {
+				slowClientPolicy = MultiClientTcpPacketWriterService.SlowClientPolicy.LATEST;
+			}
+
+			if (hasStall) {
+				if (slowClientPolicy != MultiClientTcpPacketWriterService.SlowClientPolicy.DISCONNECT) {
+					throw new IllegalArgumentException("Parameter 'stall' requires slow=disconnect");
+				}
+				if (stall <= 0) {
+					throw new IllegalArgumentException("Parameter 'stall' must be positive");
+				}
+			} else {
+				stall = 1000L;
+			}
+
+			if (!hasInterval) {
+				interval = 1000L;
+			}
+
+			if (!hasKeymap) {
+				keyCodeMapper = new IdentityKeyCodeMapper();
+			}
+
+			if (hasFps) {
+				if (fps < 1 || fps > 1000) {
+					throw new IllegalArgumentException("Parameter 'fps' must be from 1 to 1000");
+				}
+			} else {
+				fps = 30;
+			}
 
-		if (mode.equals("stdout")) {
-			if (hasHost || hasPort) {
-				throw new IllegalArgumentException("Parameters 'host' and 'port' must be unset when in stdout mode");
+			if (!hasInput || input.equals("window")) {
+				inputFactory = windowInputFactory(fps);
+			} else {
+				if (hasFps) {
+					throw new IllegalArgumentException("Parameter 'fps' must be unset except with input=window");
+				}
+				if (input.equals("stdin")) {
+					inputFactory = streamInputFactory(null);
+				} else if (input.startsWith("file:") && input.length() > "file:".length()) {
+					inputFactory = streamInputFactory(new File(input.substring("file:".length())));
+				} else {
+					throw new IllegalArgumentException("Parameter 'input' must be 'window', 'stdin', or 'file:PATH'");
+				}
 			}
 
-			new Main(interval);
-		} else if (mode.equals("tcp")) {
-			if (!hasPort) {
-				throw new IllegalArgumentException("Parameter 'port' must be set when in tcp mode");
+			for (String m : modes) {
+				switch (m) {
+				case "stdout":
+					writerFactories.add(stdoutWriterFactory(io, flushPolicy));
+					break;
+
+				case "file":
+					if (!hasFile) {
+						throw new IllegalArgumentException("Parameter 'file' must be set when in file mode");
+					}
+					writerFactories.add(fileWriterFactory(new File(file), io, flushPolicy));
+					break;
+
+				case "tcp":
+					if (!hasPort) {
+						throw new IllegalArgumentException("Parameter 'port' must be set when in tcp mode");
+					}
+					TcpSocketOptions socketOptions = new TcpSocketOptions(nodelay, sndbuf);
+					writerFactories.add(tcpMultiClient
+							? multiClientTcpWriterFactory(host, port, slowClientPolicy, stall, socketOptions)
+							: tcpWriterFactory(host, port, persist, io, socketOptions, flushPolicy));
+					break;
+
+				case "unix":
+					if (!hasSocket) {
+						throw new IllegalArgumentException("Parameter 'socket' must be set when in unix mode");
+					}
+					writerFactories.add(unixWriterFactory(Paths.get(socket), persist, io, flushPolicy));
+					break;
+
+				case "udp":
+					if (!hasHost || !hasPort) {
+						throw new IllegalArgumentException("Parameters 'host' and 'port' must be set when in udp mode");
+					}
+					if (port == 0) {
+						throw new IllegalArgumentException("Parameter 'port' must be from 1 to 65535 in udp mode");
+					}
+					if ((hasTtl || hasIface) && !isMulticastHost(host)) {
+						throw new IllegalArgumentException(
+								"Parameters 'ttl' and 'iface' must be unset unless 'host' is a multicast group");
+					}
+					writerFactories.add(udpWriterFactory(host, port, ttl, iface));
+					break;
+
+				case "shm":
+					if (!hasShmfile) {
+						throw new IllegalArgumentException("Parameter 'shmfile' must be set when in shm mode");
+					}
+					writerFactories.add(shmWriterFactory(new File(shmfile)));
+					break;
+				}
 			}
+		} catch (IllegalArgumentException e) {
+			usage("Parameter error: " + e.getMessage());
+		}
 
-			new Main(host, port, interval);
+		new Main(interval, keyCodeMapper, keepPresses, waitStrategy, recordLatency, inputFactory, writerFactories);
+	}
+
+	// Throws if the named parameter is set but none of the modes in use
+	// take it.
+	private static void ensureUsedByMode(String paramName, boolean isSet, Set<String> modes, String... usedBy) {
+		if (!isSet) {
+			return;
+		}
+		for (String mode : usedBy) {
+			if (modes.contains(mode)) {
+				return;
+			}
+		}
+		String modeList = usedBy[usedBy.length - 1];
+		if (usedBy.length > 1) {
+			modeList = Joiner.on(", ").join(Arrays.asList(usedBy).subList(0, usedBy.length - 1))
+					+ (usedBy.length > 2 ? ", or " : " or ") + modeList;
 		}
+		throw new IllegalArgumentException("Parameter '" + paramName + "' must be unset except in " + modeList
+				+ " mode");
+	}
 
+	// Resolves host the same way UdpPacketWriterService will, to see whether
+	// it is a multicast group.
+	private static boolean isMulticastHost(String host) {
+		try {
+			return InetAddress.getByName(host).isMulticastAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Parameter 'host' could not be resolved: " + e.getMessage());
+		}
 	}
 
 	private static int parseIntParameter(String paramName, String str) {
@@ -260,6 +782,82 @@ public class Main {
 		}
 	}
 
+	private static MultiClientTcpPacketWriterService.SlowClientPolicy parseSlowParameter(String paramName,
+			String str) {
+		switch (str) {
+		case "latest":
+			return MultiClientTcpPacketWriterService.SlowClientPolicy.LATEST;
+		case "disconnect":
+			return MultiClientTcpPacketWriterService.SlowClientPolicy.DISCONNECT;
+		case "block":
+			return MultiClientTcpPacketWriterService.SlowClientPolicy.BLOCK;
+		default:
+			throw new IllegalArgumentException("Parameter '" + paramName + "' must be 'latest', 'disconnect', or 'block'");
+		}
+	}
+
+	private static boolean parseBooleanParameter(String paramName, String str) {
+		switch (str) {
+		case "true":
+			return true;
+		case "false":
+			return false;
+		default:
+			throw new IllegalArgumentException("Parameter '" + paramName + "' must be 'true' or 'false'");
+		}
+	}
+
+	private static boolean parseOnOffParameter(String paramName, String str) {
+		switch (str) {
+		case "on":
+			return true;
+		case "off":
+			return false;
+		default:
+			throw new IllegalArgumentException("Parameter '" + paramName + "' must be 'on' or 'off'");
+		}
+	}
+
+	private static PacketWriterService.Io parseIoParameter(String paramName, String str) {
+		switch (str) {
+		case "stream":
+			return PacketWriterService.Io.STREAM;
+		case "channel":
+			return PacketWriterService.Io.CHANNEL;
+		default:
+			throw new IllegalArgumentException("Parameter '" + paramName + "' must be 'stream' or 'channel'");
+		}
+	}
+
+	private static FlushPolicy parseFlushParameter(String paramName, String str) {
+		FlushPolicy flushPolicy = FlushPolicy.forName(str);
+		if (flushPolicy == null) {
+			throw new IllegalArgumentException("Parameter '" + paramName
+					+ "' must be 'immediate', 'batch:N' with N positive, or 'delay:MICROS' with MICROS positive");
+		}
+		return flushPolicy;
+	}
+
+	private static WaitStrategy parseWaitParameter(String paramName, String str) {
+		WaitStrategy waitStrategy = WaitStrategy.forName(str);
+		if (waitStrategy == null) {
+			throw new IllegalArgumentException(
+					"Parameter '" + paramName + "' must be 'blocking', 'sleeping', 'yielding', or 'spin'");
+		}
+		return waitStrategy;
+	}
+
+	private static boolean parsePressesParameter(String paramName, String str) {
+		switch (str) {
+		case "keep":
+			return true;
+		case "conflate":
+			return false;
+		default:
+			throw new IllegalArgumentException("Parameter '" + paramName + "' must be 'keep' or 'conflate'");
+		}
+	}
+
 	private static long parseLongParameter(String paramName, String str) {
 		try {
 			return Long.parseLong(str);
@@ -268,6 +866,29 @@ public class Main {
 		}
 	}
 	
+	// Accepts "raw", "auto", or a comma-separated list of key codes (decimal,
+	// or hex with a 0x prefix) to be given indexes 0, 1, 2, and so on.
+	private static KeyCodeMapper parseKeymapParameter(String paramName, String str) {
+		switch (str) {
+		case "raw":
+			return new IdentityKeyCodeMapper();
+		case "auto":
+			return new AutoAssignKeyCodeMapper();
+		}
+
+		String[] parts = str.split(",", -1);
+		int[] rawKeyCodes = new int[parts.length];
+		try {
+			for (int i = 0; i < parts.length; ++i) {
+				rawKeyCodes[i] = Integer.decode(parts[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(
+					"Parameter '" + paramName + "' must be 'raw', 'auto', or a comma-separated list of key codes");
+		}
+		return new TableKeyCodeMapper(rawKeyCodes);
+	}
+
 	private static void ensureNotSet(String paramName, boolean hasParam) {
 		if (hasParam) {
 			throw new IllegalArgumentException("'" + paramName + "' was set more than once");
@@ -283,18 +904,143 @@ public class Main {
 		return parts;
 	}
 
-	void keyUpdate(int keyCode, boolean b) {
-		if (keysState.update(keyCode, b)) {
-			Packet p = keysState.getAsPacket();
+	// Called on the input source's thread (for the window, the event
+	// dispatch thread) for each key event. The event is only recorded here;
+	// keyUpdate() does the work on the input pipeline thread. when is the
+	// event's timestamp, in System.currentTimeMillis() terms.
+	void keyEvent(int keyCode, boolean pressed, long when) {
+		if (!inputPipeline.post(keyCode, pressed, when)) {
+			// The service is stopping; nothing will handle it
+			keyEventsDropped.increment();
+		}
+	}
 
-			writer.sendPacket(p);
-			window.setLabelText("State: " + p.getData());
+	// Called on the input pipeline thread for each key event. when is the
+	// event's timestamp, as passed to keyEvent().
+	void keyUpdate(int keyCode, boolean b, long when) {
+		PipelineEvents.KeyUpdate event = new PipelineEvents.KeyUpdate();
+		event.begin();
+		Packet p = updateAndSend(keyCode, b, when);
+		event.end();
+		if (event.shouldCommit()) {
+			event.keyCode = keyCode;
+			event.pressed = b;
+			if (p != null) {
+				event.packetLength = p.getLineLength();
+			}
+			event.queueDepth = getQueueDepth();
+			event.commit();
 		}
 	}
 
+	// Does the work of keyUpdate(). The return value is the packet sent, or
+	// null if the event didn't change the state.
+	private Packet updateAndSend(int keyCode, boolean b, long when) {
+		keyEvents.increment();
+
+		long arrival = 0;
+		if (eventToArrival != null) {
+			arrival = System.nanoTime();
+			eventToArrival.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - when));
+		}
+
+		int index = keyCodeMapper.toIndex(keyCode, b);
+		if (index < 0) {
+			return null;
+		}
+
+		if (!keysState.update(index, b)) {
+			return null;
+		}
+
+		stateChanges.increment();
+
+		PipelineEvents.Encode encode = new PipelineEvents.Encode();
+		encode.begin();
+		Packet p = keysState.getAsPacket();
+		encode.end();
+		if (encode.shouldCommit()) {
+			encode.keyCode = keyCode;
+			encode.packetLength = p.getLineLength();
+			encode.commit();
+		}
+		currentPacket = p;
+
+		if (arrivalToEnqueue != null) {
+			arrivalToEnqueue.record(System.nanoTime() - arrival);
+		}
+
+		// Encoded once; the same packet goes to every writer
+		for (PacketWriterService writer : writers) {
+			writer.sendPacket(p, keepPresses && b, keyCode);
+		}
+		return p;
+	}
+
+	// Gets the number of packets waiting in the deepest writer queue.
+	int getQueueDepth() {
+		int depth = 0;
+		for (PacketWriterService writer : writers) {
+			depth = Math.max(depth, writer.getQueueDepth());
+		}
+		return depth;
+	}
+
+	@Override
+	public long getKeyEvents() {
+		return keyEvents.sum();
+	}
+
+	@Override
+	public long getKeyEventsDropped() {
+		return keyEventsDropped.sum();
+	}
+
+	@Override
+	public long getStateChanges() {
+		return stateChanges.sum();
+	}
+
+	@Override
+	public long getPacketCacheHits() {
+		return keysState.getPacketCache().getHitCount();
+	}
+
+	@Override
+	public long getPacketCacheMisses() {
+		return keysState.getPacketCache().getMissCount();
+	}
+
+	@Override
+	public int getPacketCacheCapacity() {
+		return keysState.getPacketCache().getCapacity();
+	}
+
+	// Logs the latency histograms so far, if recording is on. Safe to call
+	// from any thread at any time.
+	@Override
+	public void logLatency() {
+		if (eventToArrival == null) {
+			return;
+		}
+		log.info("Latency: " + eventToArrival);
+		log.info("Latency: " + arrivalToEnqueue);
+		for (PacketWriterService writer : writers) {
+			for (LatencyHistogram histogram : writer.getLatencyHistograms()) {
+				log.info("Latency: " + histogram);
+			}
+		}
+	}
+
+	Packet getCurrentPacket() {
+		return currentPacket;
+	}
+
 	void watchdogTimeout() {
-		if (writer.isRunning()) {
-			writer.hintSendKeepalive();
+		for (PacketWriterService writer : writers) {
+			if (writer.isRunning()) {
+				writer.hintSendKeepalive();
+			}
 		}
 	}
 
@@ -302,7 +1048,15 @@ public class Main {
 		watchdog.reset();
 	}
 
-	void windowClosing() {
+	// True if every key event so far has been handled and every packet
+	// taken by its writer.
+	boolean isOutputCaughtUp() {
+		return inputPipeline.isIdle() && getQueueDepth() == 0;
+	}
+
+	// Called by the input source when its input has ended or its user has
+	// asked to quit.
+	void inputClosed() {
 		manager.stopAsync();
 	}
 	
@@ -339,8 +1093,13 @@ public class Main {
 				"-----",
 				"",
 				"    COMMAND [mode=MODE] \\",
-				"        [host=ADDRESS] [port=PORTNUMBER] \\",
-				"        [interval=MILLISECONDS]",
+				"        [host=ADDRESS] [port=PORTNUMBER] [socket=PATH] [clients=CLIENTS] \\",
+				"        [persist=BOOLEAN] [slow=POLICY] [stall=MILLISECONDS] \\",
+				"        [io=IO] [nodelay=BOOLEAN] [sndbuf=BYTES] \\",
+				"        [ttl=HOPS] [iface=NAME] [shmfile=PATH] [file=PATH] \\",
+				"        [interval=MILLISECONDS] [keymap=KEYMAP] [presses=PRESSES] \\",
+				"        [wait=STRATEGY] [flush=POLICY] [input=INPUT] [fps=RATE] \\",
+				"        [latency=ON_OFF]",
 				"",
 				"Examples",
 				"--------",
@@ -358,24 +1117,186 @@ public class Main {
 				"                    # Same, except only listen on",
 				"                    # localhost",
 				"",
+				"    COMMAND port=6761 clients=multi",
+				"                    # Open in tcp mode, accepting any number",
+				"                    # of clients on port 6761 and sending",
+				"                    # every packet to all of them",
+				"",
+				"    COMMAND port=6761 clients=multi slow=disconnect stall=250",
+				"                    # Same, except any client that takes",
+				"                    # nothing for 250 ms is disconnected",
+				"",
+				"    COMMAND port=6761 persist=true",
+				"                    # Open in tcp mode, accepting one client",
+				"                    # at a time, and accepting another",
+				"                    # whenever the last one disconnects",
+				"",
+				"    COMMAND port=6761 wait=spin",
+				"                    # Open in tcp mode, with the output",
+				"                    # thread spinning on a CPU core to",
+				"                    # send each packet as soon as possible",
+				"",
+				"    COMMAND port=6761 io=channel nodelay=true",
+				"                    # Open in tcp mode, writing each packet",
+				"                    # straight to the socket and sending it",
+				"                    # without delay",
+				"",
+				"    COMMAND mode=unix socket=/tmp/sextet.sock persist=true",
+				"                    # Open in unix mode, accepting one client",
+				"                    # at a time on the Unix domain socket",
+				"                    # /tmp/sextet.sock",
+				"",
+				"    COMMAND mode=udp host=239.255.67.61 port=6761",
+				"                    # Send each packet as a datagram to the",
+				"                    # multicast group 239.255.67.61, port",
+				"                    # 6761, on the local network",
+				"",
+				"    COMMAND mode=shm shmfile=/dev/shm/sextet",
+				"                    # Publish each packet into a ring in",
+				"                    # the memory-mapped file",
+				"                    # /dev/shm/sextet, for a reader on the",
+				"                    # same host",
+				"",
+				"    COMMAND mode=tcp,file port=6761 file=keys.log",
+				"                    # Open in tcp mode, and also write every",
+				"                    # packet to keys.log",
+				"",
+				"    COMMAND input=stdin < events.txt",
+				"                    # Open in stdout mode with no window,",
+				"                    # reading key events from events.txt,",
+				"                    # and stop at the end of it",
+				"",
+				"    COMMAND keymap=83,68,70,74,75,76",
+				"                    # Open in stdout mode, reporting only",
+				"                    # S D F J K L, as bits 0 through 5",
+				"",
 				"Parameters",
 				"----------",
 				"",
 				"The order of parameters is not important.",
 				"",
 				"mode=MODE",
-				"    (stdout or tcp; default is tcp if port is present or stdout",
-				"    otherwise) Determines whether output goes to standard output or to a",
-				"    TCP connection accepted on port. This setting is strictly optional;",
-				"    the presence or absence of port implies the mode setting.",
+				"    (one or more of stdout, file, tcp, unix, udp, and shm, separated by",
+				"    commas; default is tcp if port is present or stdout otherwise)",
+				"    Determines where output goes: to standard output, to the file",
+				"    file, to a TCP connection accepted on port, to a Unix domain socket",
+				"    connection accepted on socket, to UDP datagrams sent to host and",
+				"    port, or to a ring in the memory-mapped file shmfile. This setting",
+				"    is optional for stdout and tcp alone; the presence or absence of",
+				"    port implies one of them.",
+				"",
+				"    With more than one mode, every packet goes to each of them, each",
+				"    through its own queue and thread, so a slow one holds up none of",
+				"    the others. The service stops when any one of them stops. tcp and",
+				"    udp can't be combined, since both use host and port.",
+				"",
+				"    unix mode behaves just like tcp mode with clients=single, but",
+				"    skips the network stack for clients on the same host.",
+				"",
+				"    In udp mode, each packet is sent as one datagram: an 8-byte",
+				"    big-endian sequence number, counting up from 1, followed by the",
+				"    packet's line, terminator included. Datagrams may be lost or",
+				"    arrive out of order, but since each carries the whole state, a",
+				"    receiver can simply ignore any whose sequence number isn't higher",
+				"    than the last one it used.",
+				"",
+				"    In shm mode, packets are published into a ring of slots in a",
+				"    memory-mapped file, which readers on the same host poll without",
+				"    any system calls. The layout is described in ShmRing.java;",
+				"    us.hgk.rhythm.exp.sextetsinputtest.ShmPacketReader, in the same",
+				"    jar, is a reference reader that copies every packet to its",
+				"    standard output.",
 				"",
 				"host=ADDRESS",
-				"    (tcp mode only; default is all local addresses) Sets the address on",
-				"    which the tcp-mode service accepts a connection.",
+				"    (tcp or udp mode only; in tcp mode, default is all local addresses;",
+				"    in udp mode, no default) In tcp mode, sets the address on which the",
+				"    service accepts a connection. In udp mode, sets the address",
+				"    (possibly a multicast group) to which datagrams are sent.",
 				"",
 				"port=PORTNUMBER",
-				"    (tcp mode only; 0 .. 65535; no default) Sets the port on which the",
-				"    tcp-mode service accepts a connection.",
+				"    (tcp or udp mode only; 0 .. 65535, or 1 .. 65535 in udp mode; no",
+				"    default) In tcp mode, sets the port on which the service accepts a",
+				"    connection. In udp mode, sets the port to which datagrams are sent.",
+				"",
+				"socket=PATH",
+				"    (unix mode only; no default) Sets the path of the Unix domain",
+				"    socket on which the service accepts a connection. A socket left",
+				"    at that path by an earlier run is replaced, but not one another",
+				"    running instance is serving. The service holds a lock on PATH.lock",
+				"    while it runs, and removes the socket (but not the lock file) when",
+				"    it stops.",
+				"",
+				"clients=CLIENTS",
+				"    (tcp mode only; single or multi; default single) With single, the",
+				"    tcp-mode service accepts one client and stops when that client",
+				"    disconnects. With multi, it keeps accepting clients for as long as",
+				"    it runs, sends every packet to every connected client, and only",
+				"    drops a client that disconnects. A newly connected client is sent",
+				"    the current state right away.",
+				"",
+				"persist=BOOLEAN",
+				"    (tcp or unix mode only; true or false; default false) With",
+				"    clients=single and persist=true, the service keeps its server",
+				"    socket open when the client disconnects and waits for another",
+				"    client instead of stopping. Each client is sent the current state",
+				"    as soon as it connects, and packets left over from the previous",
+				"    client are discarded. clients=multi always behaves this way.",
+				"",
+				"slow=POLICY",
+				"    (clients=multi only; latest, disconnect, or block; default latest)",
+				"    Determines what happens to a client that can't keep up. Each client",
+				"    has its own queue of up to 64 packets, so a slow client normally",
+				"    holds up nobody else. latest keeps only the newest packet waiting",
+				"    for a slow client, so it skips intermediate states but always",
+				"    catches up to the current one. disconnect drops a client whose",
+				"    queue fills or that takes nothing for the stall interval. block",
+				"    makes the service wait for a client whose queue fills, holding up",
+				"    every client.",
+				"",
+				"stall=MILLISECONDS",
+				"    (slow=disconnect only; default 1000) Sets how long a client may go",
+				"    without taking any data, while data is waiting for it, before it is",
+				"    disconnected.",
+				"",
+				"io=IO",
+				"    (stdout, file, tcp, or unix mode only, and not with clients=multi;",
+				"    stream or channel; default stream)",
+				"    Determines how packets are written out. stream writes through a",
+				"    buffered stream (in stdout mode, System.out). channel copies the",
+				"    packets into a reused native buffer and writes them in one call",
+				"    straight to the socket, or to the standard output file descriptor,",
+				"    which saves copying, locking, and some overhead per write. The",
+				"    output itself is the same either way.",
+				"",
+				"nodelay=BOOLEAN",
+				"    (tcp mode only; true or false; default is the system default,",
+				"    usually false) Sets TCP_NODELAY on each client connection. true",
+				"    sends each packet right away instead of letting the system hold",
+				"    small packets back to combine them, which lowers latency.",
+				"",
+				"sndbuf=BYTES",
+				"    (tcp mode only; default is the system default) Sets the size of the",
+				"    send buffer of each client connection.",
+				"",
+				"ttl=HOPS",
+				"    (udp mode with a multicast host only; 1 .. 255; default 1) Sets how",
+				"    many hops (routers) multicast datagrams may cross. The default of 1",
+				"    keeps them on the local network.",
+				"",
+				"iface=NAME",
+				"    (udp mode with a multicast host only; default is the system's",
+				"    choice) Sets the network interface, such as eth0, from which",
+				"    multicast datagrams are sent.",
+				"",
+				"file=PATH",
+				"    (file mode only; no default) Sets the file to which packets are",
+				"    written, one line each, just as in stdout mode. It is created, or",
+				"    replaced if it exists.",
+				"",
+				"shmfile=PATH",
+				"    (shm mode only; no default) Sets the file holding the ring. It is",
+				"    created, or replaced if it exists. A file on a memory-backed file",
+				"    system, such as /dev/shm on Linux, is never written to disk.",
 				"",
 				"interval=MILLISECONDS",
 				"    (default 1000, meaning 1 second) Sets the interval, in milliseconds,",
@@ -390,6 +1311,76 @@ public class Main {
 				"    uninterruptible blocking read, to allow it to recheck its loop",
 				"    variables with a higher frequency, resolving some situations that",
 				"    would otherwise hang the receiver.",
+				"",
+				"keymap=KEYMAP",
+				"    (raw, auto, or a list of key codes; default raw) Determines which",
+				"    bit of the packet represents each key. raw uses the key code itself,",
+				"    so a single key with a high key code makes every packet long. auto",
+				"    gives each key the next unused bit the first time it is pressed,",
+				"    so packets are only as long as the number of different keys used",
+				"    so far requires. A comma-separated list of key codes (decimal, or",
+				"    hex with a 0x prefix), such as 83,68,70, gives the listed keys bits",
+				"    0, 1, 2, and so on, in order, and ignores all other keys.",
+				"",
+				"presses=PRESSES",
+				"    (keep or conflate; default keep) Determines what is skipped when",
+				"    output falls behind input. Each packet is a complete state, so when",
+				"    several packets are waiting to be written, only the newest one is",
+				"    normally written. With keep, a packet following a key press is",
+				"    written anyway, so a key pressed and released again before output",
+				"    catches up still shows up as pressed in one packet. With conflate,",
+				"    only the newest packet is written.",
+				"",
+				"wait=STRATEGY",
+				"    (blocking, sleeping, yielding, or spin; default blocking) Determines",
+				"    how the input and output threads wait for work, trading CPU use for",
+				"    how quickly output follows input. blocking sleeps until woken and",
+				"    uses no CPU while idle, but waking up can take as long as the",
+				"    operating system likes. sleeping checks for work in a loop,",
+				"    sleeping for short intervals when idle for a while, and uses little",
+				"    CPU. yielding checks in a loop, yielding to other threads between",
+				"    checks, and spin checks in a loop without stopping; both keep a CPU",
+				"    core busy per thread the whole time, so they only help on a machine",
+				"    with cores to spare. With clients=multi, the output thread always",
+				"    waits on its sockets, so only the input thread is affected.",
+				"",
+				"flush=POLICY",
+				"    (stdout, file, tcp, or unix mode only, and not with clients=multi;",
+				"    immediate, batch:N, or delay:MICROS; default immediate) Determines",
+				"    how many packets are written out at a time. immediate writes out",
+				"    each packet on its own. batch:N writes out all packets already",
+				"    waiting, up to N, together, but never waits for more. delay:MICROS",
+				"    keeps collecting packets for up to MICROS microseconds after the",
+				"    first one arrives and writes them out together, which saves work",
+				"    during bursts of input but delays each packet by up to MICROS.",
+				"",
+				"input=INPUT",
+				"    (window, stdin, or file:PATH; default window) Determines where key",
+				"    events come from. window opens a window that reports the keys",
+				"    pressed while it has the keyboard focus, and shows the current",
+				"    state. stdin and file:PATH need no window or display at all, and",
+				"    never load the windowing toolkit; they read events from standard",
+				"    input or from the file PATH, one per line, as 'press KEYCODE' or",
+				"    'release KEYCODE', with the key code (0 .. 65535) in decimal or hex",
+				"    with a 0x prefix. Blank lines and lines starting with # are skipped.",
+				"    At the end of the input, the service stops once the events read",
+				"    have been written out.",
+				"",
+				"fps=RATE",
+				"    (input=window only; 1 .. 1000; default 30) Sets the most times per",
+				"    second that the window's display of the state is redrawn. The",
+				"    display is only redrawn when the state has changed, and never",
+				"    holds up output.",
+				"",
+				"latency=ON_OFF",
+				"    (on or off; default off) With on, records how long each key event",
+				"    spends in each stage on its way out, and logs the distributions",
+				"    when the service stops: from the event's timestamp to its arrival",
+				"    on the input thread (to the millisecond only), from arrival to",
+				"    being queued for the writers, and for each writer, from being",
+				"    queued to being taken, from being taken to being flushed, and from",
+				"    being queued to being flushed. A batch counts as the time of its",
+				"    first packet. Recording costs a few clock reads per event.",
 
 			};
 
@@ -0,0 +1,370 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Accepts any number of clients, at any time, and sends every packet to all
+// of them. Unlike TcpPacketWriterService, a client disconnecting only drops
+// that client; the service keeps running until it is stopped. A newly
+// connected client is sent the current state right away rather than waiting
+// for the next change.
+//
+// One thread does everything: it waits on a selector that is woken by new
+// packets as well as by new connections and writable sockets. Sockets are
+// non-blocking. Each packet's bytes are shared by all clients; a client that
+// can't take a whole packet at once keeps a view of the remainder, and of any
+// packets after it, in its own bounded queue until its socket is writable
+// again. What happens when a client falls behind is up to the
+// SlowClientPolicy.
+public class MultiClientTcpPacketWriterService extends PacketWriterService {
+	private static final Logger log = Logger.getLogger(MultiClientTcpPacketWriterService.class.getName());
+
+	// The most packets (including a partly written one) a client may have
+	// waiting
+	static final int MAX_PENDING = 64;
+
+	public enum SlowClientPolicy {
+		// Keep only the packet being written and the newest one; since every
+		// packet carries the whole state, the client loses nothing but
+		// intermediate states. The client's queue never fills.
+		LATEST,
+
+		// Disconnect a client whose queue fills, or that has taken no bytes
+		// for the stall interval.
+		DISCONNECT,
+
+		// Stop and wait for a client whose queue fills. Every client then
+		// waits on the slowest, as in single-client mode.
+		BLOCK,
+	}
+
+	private String host;
+	private int port;
+	private final SlowClientPolicy slowClientPolicy;
+	private final long stallNanos;
+	private final TcpSocketOptions socketOptions;
+
+	private volatile Selector selector;
+
+	// Only used to wait on a single client under BLOCK
+	private Selector blockingSelector;
+
+	private final List<Client> clients = new ArrayList<>();
+
+	private static class Client {
+		final SocketChannel channel;
+		final String name;
+
+		// Unwritten remainders of earlier packets, oldest first
+		final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+		// When this client last took any bytes while it had some pending
+		long lastProgressNanos;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+			this.name = String.valueOf(channel.socket().getRemoteSocketAddress());
+		}
+	}
+
+	MultiClientTcpPacketWriterService(Main main, String host, int port) {
+		this(main, host, port, SlowClientPolicy.LATEST, 0, TcpSocketOptions.DEFAULT);
+	}
+
+	// stallMillis only matters with SlowClientPolicy.DISCONNECT.
+	MultiClientTcpPacketWriterService(Main main, String host, int port, SlowClientPolicy slowClientPolicy,
+			long stallMillis, TcpSocketOptions socketOptions) {
+		super(main);
+		this.host = host;
+		checkArgument(isValidPort(port), "%d is not a valid port number", port);
+		this.port = port;
+		this.slowClientPolicy = checkNotNull(slowClientPolicy);
+		checkArgument(slowClientPolicy != SlowClientPolicy.DISCONNECT || stallMillis > 0,
+				"Stall interval must be positive");
+		this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+		this.socketOptions = checkNotNull(socketOptions);
+	}
+
+	private static boolean isValidPort(int port) {
+		return port >= 0 && port <= 0xFFFF;
+	}
+
+	@Override
+	protected void run() throws Exception {
+		try (Selector sel = Selector.open(); ServerSocketChannel serverChannel = getServerChannel()) {
+			serverChannel.configureBlocking(false);
+			serverChannel.register(sel, SelectionKey.OP_ACCEPT);
+			selector = sel;
+
+			log.info("Waiting for clients");
+
+			// Under DISCONNECT, wake up often enough to notice stalls
+			long selectTimeoutMillis = (slowClientPolicy == SlowClientPolicy.DISCONNECT)
+					? Math.max(1, TimeUnit.NANOSECONDS.toMillis(stallNanos) / 4) : 0;
+
+			while (isRunning()) {
+				// Packets queued before the selector was published didn't wake
+				// it, so drain before each wait rather than after.
+				writeWaitingPackets();
+
+				sel.select(selectTimeoutMillis);
+				handleSelected(sel, serverChannel);
+
+				if (slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+					disconnectStalledClients();
+				}
+			}
+		} finally {
+			selector = null;
+			closeAllClients();
+			if (blockingSelector != null) {
+				blockingSelector.close();
+				blockingSelector = null;
+			}
+		}
+	}
+
+	@Override
+	protected void packetsWaiting() {
+		Selector sel = selector;
+		if (sel != null) {
+			sel.wakeup();
+		}
+	}
+
+	private void handleSelected(Selector sel, ServerSocketChannel serverChannel) throws IOException {
+		Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+
+			if (!key.isValid()) {
+				continue;
+			}
+			if (key.isAcceptable()) {
+				acceptClients(sel, serverChannel);
+			} else if (key.isWritable()) {
+				Client client = (Client) key.attachment();
+				try {
+					if (flushPending(client)) {
+						key.interestOps(0);
+					}
+				} catch (IOException e) {
+					clients.remove(client);
+					disconnect(client, e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void acceptClients(Selector sel, ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.shutdownInput();
+			socketOptions.applyTo(channel.socket());
+
+			Client client = new Client(channel);
+			channel.register(sel, 0, client);
+			clients.add(client);
+			clientConnected();
+			log.info("Client connected: " + client.name + " (" + clients.size() + " connected)");
+
+			try {
+				send(client, getCurrentPacket().getLineBuffer());
+			} catch (IOException e) {
+				clients.remove(client);
+				disconnect(client, e.getMessage());
+			}
+		}
+	}
+
+	// Sends the packet to every client. The bytes are only wrapped, never
+	// copied: clients that take the whole packet share one view of it, and a
+	// client that only takes part keeps a view of the rest.
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		ByteBuffer shared = packet.getLineBuffer();
+
+		Iterator<Client> it = clients.iterator();
+		while (it.hasNext()) {
+			Client client = it.next();
+			shared.rewind();
+			try {
+				send(client, shared);
+			} catch (IOException e) {
+				it.remove();
+				disconnect(client, e.getMessage());
+			}
+		}
+	}
+
+	// Writes buffer to the client if it has nothing else waiting, queueing
+	// whatever the socket won't take. buffer may be shared, so anything kept
+	// is a view of it. Throws IOException if the client should be dropped.
+	private void send(Client client, ByteBuffer buffer) throws IOException {
+		if (client.pending.isEmpty()) {
+			client.channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				client.pending.add(buffer.slice());
+				client.lastProgressNanos = System.nanoTime();
+				client.channel.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+			}
+			return;
+		}
+
+		switch (slowClientPolicy) {
+		case LATEST:
+			// The head may be partly written and must be finished to keep
+			// the lines intact; everything after it is superseded.
+			while (client.pending.size() > 1) {
+				client.pending.pollLast();
+			}
+			break;
+
+		case DISCONNECT:
+			if (client.pending.size() >= MAX_PENDING) {
+				throw new IOException(MAX_PENDING + " packets waiting");
+			}
+			break;
+
+		case BLOCK:
+			while (client.pending.size() >= MAX_PENDING) {
+				awaitProgress(client);
+			}
+			break;
+		}
+
+		client.pending.add(buffer.duplicate());
+	}
+
+	// Writes as much pending data as the socket will take. Returns true iff
+	// none is left.
+	private boolean flushPending(Client client) throws IOException {
+		ByteBuffer buffer;
+		while ((buffer = client.pending.peek()) != null) {
+			if (client.channel.write(buffer) > 0) {
+				client.lastProgressNanos = System.nanoTime();
+			}
+			if (buffer.hasRemaining()) {
+				return false;
+			}
+			client.pending.poll();
+		}
+		return true;
+	}
+
+	// Waits until the client's socket can take more, then writes what it
+	// will take.
+	private void awaitProgress(Client client) throws IOException {
+		if (blockingSelector == null) {
+			blockingSelector = Selector.open();
+		}
+
+		SelectionKey key = client.channel.register(blockingSelector, SelectionKey.OP_WRITE);
+		try {
+			while (blockingSelector.select(250) == 0) {
+				if (!isRunning()) {
+					throw new IOException("Writer is stopping");
+				}
+			}
+			blockingSelector.selectedKeys().clear();
+			flushPending(client);
+		} finally {
+			key.cancel();
+			// Completes the cancellation so the channel can be registered
+			// again next time
+			blockingSelector.selectNow();
+		}
+	}
+
+	private void disconnectStalledClients() {
+		long now = System.nanoTime();
+		Iterator<Client> it = clients.iterator();
+		while (it.hasNext()) {
+			Client client = it.next();
+			if (!client.pending.isEmpty() && now - client.lastProgressNanos > stallNanos) {
+				it.remove();
+				disconnect(client, "stalled for more than " + TimeUnit.NANOSECONDS.toMillis(stallNanos) + " ms");
+			}
+		}
+	}
+
+	private void disconnect(Client client, String reason) {
+		log.warning("Client " + client.name + " is no longer connected: " + reason);
+		close(client);
+		clientDisconnected();
+	}
+
+	private void closeAllClients() {
+		for (Client client : clients) {
+			close(client);
+			clientDisconnected();
+		}
+		clients.clear();
+	}
+
+	private static void close(Client client) {
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			log.fine("Error closing client " + client.name + ": " + e.getMessage());
+		}
+	}
+
+	private ServerSocketChannel getServerChannel() throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			if (host == null) {
+				log.info("Opening server socket on port " + port);
+				serverChannel.bind(new InetSocketAddress(port));
+			} else {
+				InetAddress address = InetAddress.getByName(host);
+				log.info("Opening server socket on host " + address.toString() + ", port " + port);
+				serverChannel.bind(new InetSocketAddress(address, port));
+			}
+			return serverChannel;
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+	}
+
+}
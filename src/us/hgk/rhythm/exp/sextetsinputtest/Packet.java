@@ -23,33 +23,102 @@
 
 package us.hgk.rhythm.exp.sextetsinputtest;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class Packet {
-	private final String data;
+	// The same terminator println() and BufferedWriter.newLine() would use
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	// The encoded data followed by LINE_SEPARATOR, or null for the invalid
+	// packet. Never modified after construction.
+	private final byte[] line;
+	private final int dataLength;
+
+	// Built on first use; only the status display asks for it.
+	private String data;
 
 	public String getData() {
-		return data;
+		if (line == null) {
+			return null;
+		}
+		String d = data;
+		if (d == null) {
+			d = new String(line, 0, dataLength, StandardCharsets.US_ASCII);
+			data = d;
+		}
+		return d;
 	}
 	
 	public boolean isValid() {
-		return data != null;
+		return line != null;
+	}
+
+	public int getDataLength() {
+		return dataLength;
+	}
+
+	// Length of the data plus the line terminator.
+	public int getLineLength() {
+		return line.length;
+	}
+
+	// Returns true iff this packet's data is exactly the first length bytes
+	// of other.
+	boolean hasData(byte[] other, int length) {
+		if (line == null || length != dataLength) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			if (line[i] != other[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Writes the data and line terminator.
+	public void writeLine(OutputStream out) throws IOException {
+		out.write(line);
+	}
+
+	// Puts the data and line terminator into buffer, which must have room
+	// for getLineLength() bytes.
+	public void putLine(ByteBuffer buffer) {
+		buffer.put(line);
+	}
+
+	// Gets a read-only view of the data and line terminator, positioned at
+	// its start. The bytes are shared, not copied, so one packet can be
+	// handed to any number of channels.
+	public ByteBuffer getLineBuffer() {
+		return ByteBuffer.wrap(line).asReadOnlyBuffer();
 	}
 
-	private Packet(String data) {
-		this.data = data;
+	private Packet(byte[] line, int dataLength) {
+		this.line = line;
+		this.dataLength = dataLength;
 	}
 	
-	public static Packet INVALID_PACKET = new Packet(null);
-	public static Packet BLANK_PACKET = new Packet("".intern());
+	public static Packet INVALID_PACKET = new Packet(null, 0);
+	public static Packet BLANK_PACKET = new Packet(LINE_SEPARATOR.clone(), 0);
 	
-	public static Packet get(String data) {
+	// Gets a packet holding a copy of the first length bytes of data, which
+	// must already be encoded.
+	public static Packet get(byte[] data, int length) {
 		if(data == null) {
 			return INVALID_PACKET;
 		}
-		else if(data.equals("")) {
+		else if(length == 0) {
 			return BLANK_PACKET;
 		}
 		else {
-			return new Packet(data);
+			byte[] line = new byte[length + LINE_SEPARATOR.length];
+			System.arraycopy(data, 0, line, 0, length);
+			System.arraycopy(LINE_SEPARATOR, 0, line, length, LINE_SEPARATOR.length);
+			return new Packet(line, length);
 		}
 	}
 }
@@ -0,0 +1,129 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+// A bounded cache of already-built packets, looked up by a fingerprint of
+// the key state they encode.
+//
+// The cache is set-associative: a fingerprint selects a set of WAYS entries,
+// and a miss replaces an entry in that set chosen by a clock hand that skips
+// (and clears) entries used since it last passed. Lookups and insertions
+// allocate nothing.
+//
+// Not thread-safe; callers serialize access. The hit and miss counts may be
+// read from any thread.
+final class PacketCache {
+	private static final int WAYS = 4;
+
+	private final long[] fingerprints;
+	private final Packet[] packets;
+	private final boolean[] referenced;
+	private final int[] hands;
+	private final int setMask;
+
+	// Only incremented by the (serialized) callers of get()
+	private volatile long hits;
+	private volatile long misses;
+
+	// capacity is rounded up to a multiple of WAYS that is a power of 2.
+	PacketCache(int capacity) {
+		checkArgument(capacity > 0, "Capacity must be positive");
+
+		int sets = 1;
+		while (sets * WAYS < capacity) {
+			sets <<= 1;
+		}
+
+		fingerprints = new long[sets * WAYS];
+		packets = new Packet[sets * WAYS];
+		referenced = new boolean[sets * WAYS];
+		hands = new int[sets];
+		setMask = sets - 1;
+	}
+
+	// Gets the cached packet whose data is the first length bytes of data, or
+	// null if there is none. fingerprint must be the fingerprint of that
+	// state; it only narrows the search, and the data itself is compared
+	// before returning a hit.
+	Packet get(long fingerprint, byte[] data, int length) {
+		int first = setOf(fingerprint) * WAYS;
+		for (int i = first; i < first + WAYS; ++i) {
+			Packet packet = packets[i];
+			if (packet != null && fingerprints[i] == fingerprint && packet.hasData(data, length)) {
+				referenced[i] = true;
+				++hits;
+				return packet;
+			}
+		}
+		++misses;
+		return null;
+	}
+
+	void put(long fingerprint, Packet packet) {
+		int set = setOf(fingerprint);
+		int first = set * WAYS;
+
+		int hand = hands[set];
+		while (referenced[first + hand]) {
+			referenced[first + hand] = false;
+			hand = (hand + 1) % WAYS;
+		}
+
+		fingerprints[first + hand] = fingerprint;
+		packets[first + hand] = packet;
+		referenced[first + hand] = true;
+		hands[set] = (hand + 1) % WAYS;
+	}
+
+	int getCapacity() {
+		return packets.length;
+	}
+
+	long getHitCount() {
+		return hits;
+	}
+
+	long getMissCount() {
+		return misses;
+	}
+
+	// Gets hits / (hits + misses), or 0 if there have been no lookups.
+	double getHitRate() {
+		long h = hits, m = misses;
+		long total = h + m;
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	private int setOf(long fingerprint) {
+		return (int) (fingerprint ^ (fingerprint >>> 32)) & setMask;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hit rate), capacity %d", getHitCount(), getMissCount(),
+				getHitRate() * 100, getCapacity());
+	}
+}
@@ -0,0 +1,75 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+// Where a writer's packet lines go when they may be held back and sent on
+// in batches: a buffered stream for Io.STREAM, or a channel, through a
+// ChannelBatch, for Io.CHANNEL. put() holds a line back, and flush() sends
+// everything held back on its way.
+//
+// Not thread-safe; meant for a writer thread.
+final class PacketLineOutput {
+	private OutputStream out;
+	private WritableByteChannel channel;
+	private final ChannelBatch batch = new ChannelBatch(4096);
+
+	// Sends lines to out, which should buffer them until its flush()
+	void setOutputStream(OutputStream out) {
+		clear();
+		this.out = out;
+	}
+
+	void setChannel(WritableByteChannel channel) {
+		clear();
+		this.channel = channel;
+	}
+
+	// Lets go of the stream or channel (without closing it) and forgets
+	// anything held back for it.
+	void clear() {
+		out = null;
+		channel = null;
+		batch.clear();
+	}
+
+	void put(Packet packet) throws IOException {
+		if (channel != null) {
+			batch.put(packet, channel);
+		} else {
+			packet.writeLine(out);
+		}
+	}
+
+	void flush() throws IOException {
+		if (channel != null) {
+			batch.writeTo(channel);
+		} else {
+			out.flush();
+		}
+	}
+}
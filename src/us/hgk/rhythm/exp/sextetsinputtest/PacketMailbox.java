@@ -0,0 +1,286 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A lock-free mailbox carrying a stream of states from one producer thread to
+// one consumer thread.
+//
+// Since each packet is a complete state, a packet that has a newer one behind
+// it is normally not worth writing. poll() skips ("conflates") such packets,
+// so a consumer that falls behind catches up to the newest state in one step
+// instead of writing out every state it missed. A packet offered as pinned is
+// never skipped this way; the producer pins the packet following a key press
+// so that a press released again before the consumer gets to it still shows
+// up in the output.
+//
+// Packets are held in a ring. If the ring is full, offer() puts the packet in
+// a single overflow slot instead, replacing anything already there, and flags
+// the tail. While the tail is flagged the producer keeps using the overflow
+// slot, and the consumer only takes from it once the ring is empty, so
+// packets still come out in the order offered. The producer goes back to the
+// ring once the consumer has taken the overflow packet. A pinned packet replaced in
+// the overflow slot is counted as dropped; it is the only way a pinned packet
+// is lost.
+//
+// Each packet can carry a timestamp and an int tag, which the consumer gets
+// back with getPolledStamp() and getPolledTag(); the writer uses them to
+// measure time spent waiting and to report the key code behind the packet.
+final class PacketMailbox {
+	// Set in tail while the producer is using the overflow slot
+	private static final long OVERFLOWING = Long.MIN_VALUE;
+
+	// Returned by takeOverflow() when the producer got in first; never
+	// offered, since offered packets must be valid
+	private static final Packet OVERFLOW_CHANGED = Packet.INVALID_PACKET;
+
+	private final Packet[] packets;
+	private final boolean[] pinned;
+	private final long[] stamps;
+	private final int[] tags;
+	private final int mask;
+
+	// Number of packets ever published to the ring, plus the OVERFLOWING
+	// flag; written by the producer
+	private final AtomicLong tail = new AtomicLong();
+	// Number of packets ever taken from the ring; written by the consumer
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicReference<Packet> overflow = new AtomicReference<>();
+
+	// Stamp and tag of the packet in the overflow slot. They are written
+	// before the packet, so a consumer taking the packet sees its own or, if
+	// the packet is replaced at just that moment, those of its replacement.
+	private volatile long overflowStamp;
+	private volatile int overflowTag;
+
+	// Consumer-only state
+	private long polledStamp;
+	private int polledTag;
+
+	// Producer-only state
+	private long cachedHead;
+	private boolean overflowPinned;
+
+	// Each count is only incremented by one thread
+	private volatile long producerConflated;
+	private volatile long consumerConflated;
+	private volatile long dropped;
+
+	// capacity is rounded up to a power of 2.
+	PacketMailbox(int capacity) {
+		checkArgument(capacity > 0, "Capacity must be positive");
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		packets = new Packet[size];
+		pinned = new boolean[size];
+		stamps = new long[size];
+		tags = new int[size];
+		mask = size - 1;
+	}
+
+	void offer(Packet packet, boolean pin) {
+		offer(packet, pin, 0, -1);
+	}
+
+	// Producer side. Adds a valid packet, with an arbitrary stamp and tag, to
+	// the mailbox without blocking.
+	void offer(Packet packet, boolean pin, long stamp, int tag) {
+		checkArgument(packet.isValid(), "Packet must be valid");
+
+		long t = tail.get();
+		if ((t & OVERFLOWING) != 0) {
+			if (overflow.get() != null) {
+				overflowStamp = stamp;
+				overflowTag = tag;
+				replaceOverflow(packet, pin);
+				return;
+			}
+			// The consumer has emptied the ring and taken the overflow packet
+			t &= ~OVERFLOWING;
+		}
+
+		if (hasRoom(t)) {
+			int i = (int) t & mask;
+			packets[i] = packet;
+			pinned[i] = pin;
+			stamps[i] = stamp;
+			tags[i] = tag;
+			tail.set(t + 1);
+		} else {
+			overflowPinned = pin;
+			overflowStamp = stamp;
+			overflowTag = tag;
+			overflow.set(packet);
+			tail.set(t | OVERFLOWING);
+		}
+	}
+
+	private boolean hasRoom(long t) {
+		if (t - cachedHead < packets.length) {
+			return true;
+		}
+		cachedHead = head.get();
+		return t - cachedHead < packets.length;
+	}
+
+	private void replaceOverflow(Packet packet, boolean pin) {
+		boolean replacedPinned = overflowPinned;
+		overflowPinned = pin;
+
+		// If the consumer took the old packet in the meantime, the new one
+		// simply takes its place.
+		if (overflow.getAndSet(packet) != null) {
+			if (replacedPinned) {
+				++dropped;
+			} else {
+				++producerConflated;
+			}
+		}
+	}
+
+	// Consumer side. Takes the next packet to be written, or returns null if
+	// the mailbox is empty. Unpinned packets with newer packets behind them
+	// are skipped.
+	Packet poll() {
+		long h = head.get();
+		for (;;) {
+			long t = tail.get();
+			if (h < (t & ~OVERFLOWING)) {
+				int i = (int) h & mask;
+				Packet packet = packets[i];
+				boolean pin = pinned[i];
+				long stamp = stamps[i];
+				int tag = tags[i];
+				packets[i] = null;
+				head.lazySet(++h);
+
+				if (pin || t == h) {
+					polledStamp = stamp;
+					polledTag = tag;
+					return packet;
+				}
+				++consumerConflated;
+			} else if ((t & OVERFLOWING) == 0) {
+				return null;
+			} else {
+				Packet packet = takeOverflow(t);
+				if (packet != OVERFLOW_CHANGED) {
+					if (packet != null) {
+						polledStamp = overflowStamp;
+						polledTag = overflowTag;
+					}
+					return packet;
+				}
+			}
+		}
+	}
+
+	// Takes the overflow packet, given that t is a flagged tail whose ring
+	// the consumer has emptied. Returns null if the packet has already been
+	// taken (and the producer has yet to notice), or OVERFLOW_CHANGED if the
+	// producer replaced it or started a new episode in the meantime.
+	//
+	// The tail can only leave the flagged state once the overflow slot has
+	// been emptied, which only the consumer does, so if the tail is still t
+	// when the packet is read, the packet is newer than anything in the ring.
+	private Packet takeOverflow(long t) {
+		Packet packet = overflow.get();
+		if (packet == null) {
+			return null;
+		}
+		if (tail.get() == t && overflow.compareAndSet(packet, null)) {
+			return packet;
+		}
+		return OVERFLOW_CHANGED;
+	}
+
+	// Consumer side. Gets the stamp of the packet last returned by poll().
+	long getPolledStamp() {
+		return polledStamp;
+	}
+
+	// Consumer side. Gets the tag of the packet last returned by poll().
+	int getPolledTag() {
+		return polledTag;
+	}
+
+	// Consumer side. Discards everything in the mailbox. Discarded packets
+	// are not counted as conflated or dropped.
+	void clear() {
+		long h = head.get();
+		for (;;) {
+			long t = tail.get();
+			while (h < (t & ~OVERFLOWING)) {
+				packets[(int) h++ & mask] = null;
+			}
+			head.lazySet(h);
+
+			if ((t & OVERFLOWING) == 0 || takeOverflow(t) != OVERFLOW_CHANGED) {
+				return;
+			}
+		}
+	}
+
+	// Either side. True if no packet is waiting.
+	boolean isEmpty() {
+		long t = tail.get();
+		return head.get() == (t & ~OVERFLOWING) && ((t & OVERFLOWING) == 0 || overflow.get() == null);
+	}
+
+	// Either side. Gets the number of packets waiting, including any that
+	// poll() would skip.
+	int size() {
+		long t = tail.get();
+		long n = (t & ~OVERFLOWING) - head.get();
+		if ((t & OVERFLOWING) != 0 && overflow.get() != null) {
+			++n;
+		}
+		// The head may have moved past the tail read above
+		return (int) Math.max(n, 0);
+	}
+
+	// Gets the number of packets skipped in favor of a newer one.
+	long getConflatedCount() {
+		return producerConflated + consumerConflated;
+	}
+
+	// Gets the number of pinned packets lost to a full mailbox.
+	long getDroppedCount() {
+		return dropped;
+	}
+
+	@Override
+	public String toString() {
+		return getConflatedCount() + " conflated, " + getDroppedCount() + " dropped";
+	}
+}
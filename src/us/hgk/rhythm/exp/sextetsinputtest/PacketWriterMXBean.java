@@ -0,0 +1,55 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+// Counters for one writer, registered with the platform MBean server as
+// us.hgk.rhythm.exp.sextetsinputtest:type=Writer,name=CLASS while the service
+// runs.
+public interface PacketWriterMXBean {
+	// Packets handed to the destination, keepalives included. A packet
+	// counts once the write (and flush) carrying it has succeeded.
+	long getPacketsWritten();
+
+	long getBytesWritten();
+
+	// Batches sent on their way (see FlushPolicy)
+	long getFlushes();
+
+	// Blank packets written because the watchdog asked for one and nothing
+	// else was waiting
+	long getKeepalivesWritten();
+
+	// Packets skipped in favor of a newer one
+	long getPacketsConflated();
+
+	// Pinned packets lost because the writer fell too far behind
+	long getPressesDropped();
+
+	// Packets waiting to be taken by the writer, right now
+	int getQueueDepth();
+
+	long getClientConnects();
+
+	long getClientDisconnects();
+}
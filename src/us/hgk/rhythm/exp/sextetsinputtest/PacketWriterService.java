@@ -23,40 +23,202 @@
 
 package us.hgk.rhythm.exp.sextetsinputtest;
 
+import static com.google.common.base.Preconditions.*;
+
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 
-public abstract class PacketWriterService extends AbstractExecutionThreadService {
-	private static final Logger log = Logger.getLogger(PacketWriterService.class.getName());
-	
+public abstract class PacketWriterService extends AbstractExecutionThreadService implements PacketWriterMXBean {
+
+	// How a writer gets packets to its destination
+	public enum Io {
+		// Through an OutputStream, flushed after each batch
+		STREAM,
+		// Copied into a reused direct buffer, then written to a channel
+		// with a single write() per batch (see ChannelBatch)
+		CHANNEL
+	}
+
 	protected Main main;
 
 	PacketWriterService(Main main) {
 		this.main = main;
 	}
 	
-	private LinkedBlockingQueue<Packet> waiting = new LinkedBlockingQueue<>(4);
+	private final PacketMailbox waiting = new PacketMailbox(64);
+
+	// Set by hintSendKeepalive(), cleared by the writer when it takes a packet
+	private final AtomicBoolean keepaliveRequested = new AtomicBoolean();
+
+	private WaitStrategy waitStrategy = new WaitStrategy.Blocking();
+	private FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+
+	// Null unless latency recording is on. Each is recorded only by the
+	// writer thread.
+	private LatencyHistogram enqueueToDequeue;
+	private LatencyHistogram dequeueToFlush;
+	private LatencyHistogram enqueueToFlush;
+
+	// Counters for PacketWriterMXBean
+	private final LongAdder packetsWritten = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder keepalivesWritten = new LongAdder();
+	private final LongAdder clientConnects = new LongAdder();
+	private final LongAdder clientDisconnects = new LongAdder();
+
+	// For latency recording, the times the packet last taken was queued (0
+	// for a keepalive) and taken
+	private long lastEnqueued;
+	private long lastDequeued;
+
+	// The key code behind the packet last taken, or -1 if none, for
+	// PipelineEvents
+	private int lastKeyCode = -1;
+
+	// Names this writer in PipelineEvents
+	private final String eventName = getClass().getSimpleName();
+
+	// The writer thread while it is parked in pollNextPacketUntil(), so that
+	// wakeWriter() can cut the wait short; otherwise null
+	private volatile Thread delayedWriter;
+
+	// True when getNextPacket() has something to do
+	private final WaitStrategy.Readiness packetReady = new WaitStrategy.Readiness() {
+		@Override
+		public boolean isReady() {
+			return doneReading || !waiting.isEmpty() || keepaliveRequested.get();
+		}
+	};
+
+	// Sets how the writer thread waits for packets. The default is blocking.
+	// Only valid before the service is started.
+	void setWaitStrategy(WaitStrategy waitStrategy) {
+		checkState(state() == State.NEW, "The wait strategy must be set before starting");
+		this.waitStrategy = checkNotNull(waitStrategy);
+	}
+
+	// Sets how many packets packetWriterLoopBody() writes per flush. The
+	// default is immediate. Only valid before the service is started.
+	void setFlushPolicy(FlushPolicy flushPolicy) {
+		checkState(state() == State.NEW, "The flush policy must be set before starting");
+		this.flushPolicy = checkNotNull(flushPolicy);
+	}
+
+	// Turns on recording of how long packets spend waiting and being
+	// written. Only valid before the service is started.
+	void enableLatencyRecording() {
+		checkState(state() == State.NEW, "Latency recording must be enabled before starting");
+		String name = getClass().getSimpleName();
+		enqueueToDequeue = new LatencyHistogram(name + " enqueue to dequeue");
+		dequeueToFlush = new LatencyHistogram(name + " dequeue to flush");
+		enqueueToFlush = new LatencyHistogram(name + " enqueue to flush");
+	}
+
+	// Gets the latency histograms, or an empty array if recording is off.
+	LatencyHistogram[] getLatencyHistograms() {
+		if (enqueueToDequeue == null) {
+			return new LatencyHistogram[0];
+		}
+		return new LatencyHistogram[] { enqueueToDequeue, dequeueToFlush, enqueueToFlush };
+	}
 
 	void sendPacket(Packet packet) {
+		sendPacket(packet, false);
+	}
+
+	void sendPacket(Packet packet, boolean pin) {
+		sendPacket(packet, pin, -1);
+	}
+
+	// Queues a packet for writing. If the writer falls behind, it skips to
+	// the newest packet, except that a pinned packet is still written (see
+	// PacketMailbox). keyCode is that of the key event behind the packet, or
+	// -1, for PipelineEvents. Only one thread may call this.
+	void sendPacket(Packet packet, boolean pin, int keyCode) {
 		if (packet.isValid()) {
-			// Delete an older submission if the waiting queue is full
-			while (!waiting.offer(packet)) {
-				log.fine("Dropping an older waiting packet to allow for a new one");
-				waiting.poll();
+			PipelineEvents.Enqueue event = new PipelineEvents.Enqueue();
+			event.begin();
+			waiting.offer(packet, pin, enqueueToDequeue != null ? System.nanoTime() : 0, keyCode);
+			event.end();
+			if (event.shouldCommit()) {
+				event.writer = eventName;
+				event.keyCode = keyCode;
+				event.packetLength = packet.getLineLength();
+				event.queueDepth = waiting.size();
+				event.pinned = pin;
+				event.commit();
 			}
+
+			wakeWriter();
+			packetsWaiting();
 		}
 	}
 
-	// If no packets remain in waiting, add a blank packet.
-	// If waiting is not empty, nothing is added since the next packet
-	// out is effectively a keepalive.
+	// Requests a blank packet, unless some other packet is written first, in
+	// which case that packet is effectively a keepalive.
 	void hintSendKeepalive() {
-		if (waiting.isEmpty()) {
-			waiting.offer(Packet.BLANK_PACKET);
-		}
+		keepaliveRequested.set(true);
+		wakeWriter();
+		packetsWaiting();
+	}
+
+	@Override
+	public long getPacketsWritten() {
+		return packetsWritten.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	@Override
+	public long getKeepalivesWritten() {
+		return keepalivesWritten.sum();
+	}
+
+	@Override
+	public long getPacketsConflated() {
+		return waiting.getConflatedCount();
+	}
+
+	@Override
+	public long getPressesDropped() {
+		return waiting.getDroppedCount();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return waiting.size();
+	}
+
+	@Override
+	public long getClientConnects() {
+		return clientConnects.sum();
+	}
+
+	@Override
+	public long getClientDisconnects() {
+		return clientDisconnects.sum();
+	}
+
+	// Called by writers that serve clients as each connects and disconnects
+	protected void clientConnected() {
+		clientConnects.increment();
+	}
+
+	protected void clientDisconnected() {
+		clientDisconnects.increment();
 	}
 
 	private volatile boolean doneReading = false;
@@ -66,53 +228,263 @@ public abstract class PacketWriterService extends AbstractExecutionThreadService
 		// Prevent the next pass of the loop in getNextPacket()
 		doneReading = true;
 
-		// Cause waiting.take() in getNextPacket() to stop.
-		// (The offer doesn't have to succeed; if it doesn't,
-		// this just means that waiting is already full and
-		// waiting.take() should run unblocked on the next
-		// pass.)
-		waiting.offer(Packet.INVALID_PACKET);
+		// Cause the wait in getNextPacket() to stop.
+		wakeWriter();
+		packetsWaiting();
+	}
+
+	private void wakeWriter() {
+		waitStrategy.signal();
+		Thread writer = delayedWriter;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	// Drops any packets that are waiting to be written.
+	protected void discardWaitingPackets() {
+		waiting.clear();
+		keepaliveRequested.set(false);
 	}
 
-	// Does waiting.take() in a loop. Receiving an INVALID_PACKET in the
-	// queue (which will be skipped) or an interrupt on the
-	// thread will cause doneReading to be rechecked before
+	// Gets the packet for the current key state, for a writer to send a
+	// newly connected client before anything else.
+	protected Packet getCurrentPacket() {
+		return main.getCurrentPacket();
+	}
+
+	// Called on the sending thread after a packet has been queued, and after
+	// shutdown has been triggered. Writers that wait on something other than
+	// the mailbox (and use pollNextPacket()) override this to wake themselves.
+	protected void packetsWaiting() {
+	}
+
+	// Waits, using the wait strategy, until a packet is waiting. A signal
+	// from sendPacket(), hintSendKeepalive(), or triggerShutdown(), or an
+	// interrupt on the thread, will cause doneReading to be rechecked before
 	// continuing to wait.
 	// The return value will be null iff doneReading.
 	private Packet getNextPacket() {
 		while (!doneReading) {
-			try {
-				Packet packet = waiting.take();
-				if (!packet.isValid()) {
-					continue;
-				}
-				return doneReading ? null : packet;
-			} catch (InterruptedException e) {
-				continue;
+			Packet packet = pollNextPacket();
+			if (packet != null) {
+				return packet;
 			}
+			waitStrategy.waitFor(packetReady);
 		}
 		return null;
 	}
 
+	// Gets the next waiting packet without blocking. The return value will
+	// be null if there is no packet waiting or if doneReading.
+	protected Packet pollNextPacket() {
+		if (doneReading) {
+			return null;
+		}
+
+		Packet packet = waiting.poll();
+		long enqueued = 0;
+		boolean keepalive = false;
+		if (packet != null) {
+			enqueued = waiting.getPolledStamp();
+			lastKeyCode = waiting.getPolledTag();
+		} else if (keepaliveRequested.get()) {
+			packet = Packet.BLANK_PACKET;
+			lastKeyCode = -1;
+			keepalive = true;
+			keepalivesWritten.increment();
+		} else {
+			return null;
+		}
+
+		if (enqueueToDequeue != null) {
+			recordDequeue(enqueued);
+		}
+		if (keepaliveRequested.get()) {
+			keepaliveRequested.set(false);
+		}
+
+		PipelineEvents.Dequeue event = new PipelineEvents.Dequeue();
+		if (event.shouldCommit()) {
+			event.writer = eventName;
+			event.keyCode = lastKeyCode;
+			event.packetLength = packet.getLineLength();
+			event.queueDepth = waiting.size();
+			event.keepalive = keepalive;
+			event.commit();
+		}
+		return packet;
+	}
+
+	private void recordDequeue(long enqueued) {
+		lastDequeued = System.nanoTime();
+		lastEnqueued = enqueued;
+		if (enqueued != 0) {
+			enqueueToDequeue.record(lastDequeued - enqueued);
+		}
+	}
+
+	// Records the latencies of a batch just flushed, as those of its first
+	// (and so longest-waiting) packet.
+	private void recordFlush(long enqueued, long dequeued) {
+		long flushed = System.nanoTime();
+		dequeueToFlush.record(flushed - dequeued);
+		if (enqueued != 0) {
+			enqueueToFlush.record(flushed - enqueued);
+		}
+	}
+
 	@Override
 	protected void run() throws Exception {
 		packetWriterLoopBody();
 	}
 
+	// Writes packets in batches, as the flush policy allows: each batch
+	// starts with the next packet to arrive, takes in more packets with
+	// bufferPacket() while the policy allows, and ends with flushPackets().
 	protected void packetWriterLoopBody() throws IOException {
+		int maxBatch = flushPolicy.getMaxBatch();
+		long maxDelayNanos = flushPolicy.getMaxDelayNanos();
+
 		Packet packet;
 		while ((packet = getNextPacket()) != null) {
+			PipelineEvents.Write event = new PipelineEvents.Write();
+			event.begin();
+
+			long deadline = System.nanoTime() + maxDelayNanos;
+			long enqueued = lastEnqueued;
+			long dequeued = lastDequeued;
+			int keyCode = lastKeyCode;
+			int batched = 0;
+			int batchBytes = 0;
+			for (;;) {
+				writingPacket(packet);
+				bufferPacket(packet);
+				batchBytes += packet.getLineLength();
+				if (++batched >= maxBatch) {
+					break;
+				}
+
+				packet = null;
+				if (maxDelayNanos > 0 && System.nanoTime() - deadline < 0) {
+					packet = pollNextPacketUntil(deadline);
+				}
+				if (packet == null) {
+					// Past the deadline, or with no delay: take only what is
+					// already waiting, so that pinned presses left behind go
+					// out now rather than after another whole delay
+					packet = pollNextPacket();
+				}
+				if (packet == null) {
+					break;
+				}
+			}
+			flushPackets();
+			batchFlushed(event, enqueued, dequeued, keyCode, batched, batchBytes);
+		}
+	}
+
+	// Writes every packet already waiting as one batch, without waiting for
+	// more, and returns whether there were any. For writers that wait for
+	// packets in their own way rather than in packetWriterLoopBody(); the
+	// flush policy doesn't apply.
+	protected boolean writeWaitingPackets() throws IOException {
+		Packet packet = pollNextPacket();
+		if (packet == null) {
+			return false;
+		}
+
+		PipelineEvents.Write event = new PipelineEvents.Write();
+		event.begin();
+
+		long enqueued = lastEnqueued;
+		long dequeued = lastDequeued;
+		int keyCode = lastKeyCode;
+		int batched = 0;
+		int batchBytes = 0;
+		do {
 			writingPacket(packet);
-			outputPacket(packet);
-			
+			bufferPacket(packet);
+			batchBytes += packet.getLineLength();
+			++batched;
+		} while ((packet = pollNextPacket()) != null);
+		flushPackets();
+		batchFlushed(event, enqueued, dequeued, keyCode, batched, batchBytes);
+		return true;
+	}
+
+	// Counts and records a batch just flushed, whose first packet was
+	// enqueued and dequeued at the given times. Packets are only counted as
+	// written once the flush has succeeded.
+	private void batchFlushed(PipelineEvents.Write event, long enqueued, long dequeued, int keyCode, int batched,
+			int batchBytes) {
+		packetsWritten.add(batched);
+		bytesWritten.add(batchBytes);
+		flushes.increment();
+		if (dequeueToFlush != null) {
+			recordFlush(enqueued, dequeued);
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.writer = eventName;
+			event.keyCode = keyCode;
+			event.packetLength = batchBytes;
+			event.queueDepth = waiting.size();
+			event.packets = batched;
+			event.commit();
+		}
+	}
+
+	// Gets the next waiting packet, waiting for one until deadline (in
+	// System.nanoTime() terms) if necessary. The return value will be null
+	// if no packet arrives in time or if doneReading.
+	private Packet pollNextPacketUntil(long deadline) {
+		for (;;) {
+			Packet packet = pollNextPacket();
+			if (packet != null || doneReading) {
+				return packet;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+
+			// Set before the recheck, so anything made ready after it sees
+			// delayedWriter and unparks this thread
+			delayedWriter = Thread.currentThread();
+			if (!packetReady.isReady()) {
+				LockSupport.parkNanos(this, remaining);
+			}
+			delayedWriter = null;
 		}
 	}
 
-	private void writingPacket(Packet packet) {
+	// Called just before each packet is written.
+	protected void writingPacket(Packet packet) {
 		main.writingPacket(packet);
-		
 	}
 
+	// Writes a single packet and sends it on its way at once, outside of any
+	// batch.
+	protected void writePacket(Packet packet) throws IOException {
+		writingPacket(packet);
+		outputPacket(packet);
+		packetsWritten.increment();
+		bytesWritten.add(packet.getLineLength());
+	}
+
+	// Writes a packet and sends it on its way at once.
 	protected abstract void outputPacket(Packet packet) throws IOException;
 
+	// Writes a packet that may be held back until the next flushPackets().
+	// Writers that can't hold packets back leave this as outputPacket().
+	protected void bufferPacket(Packet packet) throws IOException {
+		outputPacket(packet);
+	}
+
+	// Sends on their way any packets held back by bufferPacket().
+	protected void flushPackets() throws IOException {
+	}
+
 }
@@ -0,0 +1,122 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Flight Recorder events covering each key event's way from input to output,
+// so that a stall can be lined up against GC, safepoints, or socket I/O in
+// the same recording. They are off unless a recording enables them, e.g.
+//
+// java -XX:StartFlightRecording=filename=sextet.jfr -jar SextetInputTest.jar ...
+//
+// and while off, creating and checking one costs next to nothing. They are
+// used unguarded on every path, so the runtime must include the jdk.jfr
+// module; every standard build of Java 17, the release this tree targets,
+// does.
+final class PipelineEvents {
+	private static final String PREFIX = "us.hgk.rhythm.exp.sextetsinputtest.";
+
+	private PipelineEvents() {
+	}
+
+	@Category({ "SextetInputTest", "Pipeline" })
+	abstract static class PipelineEvent extends Event {
+		@Label("Key Code")
+		@Description("Key code of the event behind the packet, or -1 if none")
+		int keyCode = -1;
+
+		@Label("Packet Length")
+		@Description("Length of the packet's line, terminator included")
+		@DataAmount
+		int packetLength;
+
+		@Label("Queue Depth")
+		@Description("Packets waiting for the writer (the deepest writer, where there are several)")
+		int queueDepth;
+	}
+
+	@Name(PREFIX + "KeyUpdate")
+	@Label("Key Update")
+	@Description("Handling of one key event in Main.keyUpdate(), from mapping to queueing the packet")
+	static final class KeyUpdate extends PipelineEvent {
+		@Label("Pressed")
+		boolean pressed;
+	}
+
+	@Name(PREFIX + "Encode")
+	@Label("Encode")
+	@Description("Building the packet for a new state in KeysState.getAsPacket()")
+	static final class Encode extends PipelineEvent {
+	}
+
+	@Name(PREFIX + "Enqueue")
+	@Label("Enqueue")
+	@Description("Queueing a packet for one writer")
+	static final class Enqueue extends PipelineEvent {
+		@Label("Writer")
+		String writer;
+
+		@Label("Pinned")
+		boolean pinned;
+	}
+
+	@Name(PREFIX + "Dequeue")
+	@Label("Dequeue")
+	@Description("A writer taking the next packet to write")
+	static final class Dequeue extends PipelineEvent {
+		@Label("Writer")
+		String writer;
+
+		@Label("Keepalive")
+		boolean keepalive;
+	}
+
+	@Name(PREFIX + "Write")
+	@Label("Write")
+	@Description("A writer writing a batch of packets and flushing it; the key code is that of the first "
+			+ "packet, and the packet length the total of the batch")
+	static final class Write extends PipelineEvent {
+		@Label("Writer")
+		String writer;
+
+		@Label("Packets")
+		int packets;
+	}
+
+	@Name(PREFIX + "Keepalive")
+	@Label("Keepalive")
+	@Description("The watchdog finding the output idle and asking the writers for a keepalive")
+	static final class Keepalive extends PipelineEvent {
+		@Label("Interval")
+		@Timespan(Timespan.MILLISECONDS)
+		long intervalMillis;
+	}
+}
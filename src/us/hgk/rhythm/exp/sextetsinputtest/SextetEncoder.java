@@ -0,0 +1,61 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+// Maps 6-bit values to the printable ASCII bytes that carry them on the wire.
+final class SextetEncoder {
+
+	// ENCODED[v] is the byte for the 6-bit value v.
+	private static final byte[] ENCODED = new byte[64];
+
+	static {
+		for (int value = 0; value < ENCODED.length; ++value) {
+			// Keeps the low 6 bits, sets the bits above to form printable
+			// non-space ASCII
+			ENCODED[value] = (byte) (((value + 0x10) & 0x3F) + 0x30);
+		}
+	}
+
+	private SextetEncoder() {
+	}
+
+	// Encodes the low 6 bits of value.
+	static byte encode(int value) {
+		return ENCODED[value & 0x3F];
+	}
+
+	// Gets the number of sextets in the packet for a state whose highest set
+	// bit is highestSetBit (-1 if none are set).
+	static int sextetCount(int highestSetBit) {
+		int n = highestSetBit + 1;
+		if (n <= 0) {
+			// A packet of all 0s is encoded overlong to distinguish it from a
+			// blank line.
+			return 1;
+		}
+		// In so many words, ceil(n/6), but without the floating-point part.
+		return (n + 5) / 6;
+	}
+
+}
@@ -0,0 +1,103 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A reference reader for the ring written by ShmPacketWriterService. Copies
+// every packet line to stdout, in order, until the writer shuts down.
+//
+// java -cp SextetInputTest.jar us.hgk.rhythm.exp.sextetsinputtest.ShmPacketReader FILE
+//
+// The reader busy-polls, yielding between polls, so it answers within
+// microseconds but keeps a core busy; a reader with anything better to do
+// would check once per frame instead, and take only the newest packet.
+public class ShmPacketReader {
+	private final ShmRing ring;
+	private final byte[] line;
+	private long lastRead = 0;
+	private long missed = 0;
+
+	ShmPacketReader(ShmRing ring) {
+		this.ring = ring;
+		this.line = new byte[ring.getMaxLineLength()];
+	}
+
+	// Copies out every packet published since the last call, returning
+	// false once the writer has shut down and everything has been copied.
+	boolean poll(OutputStream out) throws IOException {
+		// Check before reading; anything published before the writer closed
+		// is then still picked up below
+		boolean closed = ring.isClosed();
+
+		long published = ring.getPublished();
+		while (lastRead < published) {
+			long next = lastRead + 1;
+			int length = ring.read(next, line);
+			if (length < 0) {
+				// Overwritten already. The oldest packet that can still be in
+				// the ring is a full lap behind the newest; resume there, or
+				// just past this one if that is later.
+				long newest = ring.getPublished();
+				long resume = Math.max(next + 1, newest - ring.getSlotCount() + 1);
+				missed += resume - next;
+				lastRead = resume - 1;
+				published = newest;
+				continue;
+			}
+			out.write(line, 0, length);
+			lastRead = next;
+		}
+
+		return !closed;
+	}
+
+	long getMissedCount() {
+		return missed;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 1) {
+			System.err.println("Usage: " + ShmPacketReader.class.getName() + " FILE");
+			System.exit(1);
+		}
+
+		ShmRing ring = ShmRing.open(new File(args[0]));
+		ShmPacketReader reader = new ShmPacketReader(ring);
+		OutputStream out = new BufferedOutputStream(System.out);
+
+		while (reader.poll(out)) {
+			out.flush();
+			Thread.yield();
+		}
+		out.flush();
+
+		if (reader.getMissedCount() > 0) {
+			System.err.println(reader.getMissedCount() + " packets were overwritten before they were read");
+		}
+	}
+}
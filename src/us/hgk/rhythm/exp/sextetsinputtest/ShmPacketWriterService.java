@@ -0,0 +1,86 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+// Publishes each packet into a ring in a memory-mapped file (see ShmRing for
+// the layout), for a reader on the same host to poll without going through
+// the network stack or making any system calls. ShmPacketReader is a
+// reference reader.
+//
+// Nothing waits on the reader: the writer only ever overwrites the oldest
+// slot, so a reader that falls a whole ring behind has missed packets, but
+// never anything newer than the last one it got.
+public class ShmPacketWriterService extends PacketWriterService {
+	private static final Logger log = Logger.getLogger(ShmPacketWriterService.class.getName());
+
+	static final int DEFAULT_SLOT_COUNT = 64;
+
+	// Room for the state of every 16-bit key code, and then some
+	static final int DEFAULT_SLOT_SIZE = 16 * 1024;
+
+	private final File file;
+	private final int slotCount;
+	private final int slotSize;
+
+	private ShmRing ring;
+	private long sequence = 0;
+
+	ShmPacketWriterService(Main main, File file) {
+		this(main, file, DEFAULT_SLOT_COUNT, DEFAULT_SLOT_SIZE);
+	}
+
+	ShmPacketWriterService(Main main, File file, int slotCount, int slotSize) {
+		super(main);
+		this.file = checkNotNull(file);
+		this.slotCount = slotCount;
+		this.slotSize = slotSize;
+	}
+
+	@Override
+	protected void startUp() throws Exception {
+		log.info("Publishing packets to " + file);
+		ring = ShmRing.create(file, slotCount, slotSize);
+	}
+
+	@Override
+	protected void shutDown() throws Exception {
+		ring.close();
+	}
+
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		if (!ring.publish(sequence + 1, packet)) {
+			log.warning("Packet of " + packet.getLineLength() + " bytes does not fit in a " + slotSize
+					+ "-byte slot; not published");
+			return;
+		}
+		++sequence;
+	}
+}
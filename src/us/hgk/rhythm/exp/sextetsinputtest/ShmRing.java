@@ -0,0 +1,220 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A ring of packet slots in a memory-mapped file, written by one process and
+// polled by any number of readers on the same host without system calls.
+//
+// Layout (all numbers little-endian):
+//
+// 0 int magic, "SXT1" (0x31545853)
+// 4 int layout version, 1
+// 8 int slot count, a power of 2
+// 12 int slot size in bytes
+// 16 long sequence number of the newest published packet; 0 before the
+// first
+// 24 int 1 once the writer has shut down, otherwise 0
+// 64 the slots
+//
+// Packet n (counting from 1) goes in slot n % slot count. A slot holds the
+// sequence number of the packet in it (a long, 0 while the slot is being
+// rewritten), the length of the packet's line (an int), and the line itself,
+// terminator included. A reader takes the newest sequence number, reads that
+// slot, and checks that the slot's sequence number matched both before and
+// after reading; if not, the slot was rewritten underneath it and it tries
+// again with the newer sequence number. The slots behind the newest one let a
+// reader that polls a little late still pick up every packet.
+//
+// The mapped memory is read and written with plain accesses, kept in order
+// by VarHandle fences: the writer puts a release fence between stores that
+// must be seen in order, and a reader puts an acquire fence between loads
+// that must happen in order.
+final class ShmRing {
+	static final int MAGIC = 0x31545853;
+	static final int LAYOUT_VERSION = 1;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int SLOT_COUNT_OFFSET = 8;
+	private static final int SLOT_SIZE_OFFSET = 12;
+	private static final int PUBLISHED_OFFSET = 16;
+	private static final int CLOSED_OFFSET = 24;
+	private static final int SLOTS_OFFSET = 64;
+
+	private static final int SLOT_SEQUENCE_OFFSET = 0;
+	private static final int SLOT_LENGTH_OFFSET = 8;
+	private static final int SLOT_LINE_OFFSET = 12;
+
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+	private final int slotSize;
+
+	private ShmRing(MappedByteBuffer buffer, int slotCount, int slotSize) {
+		this.buffer = buffer;
+		this.slotCount = slotCount;
+		this.slotSize = slotSize;
+	}
+
+	// Creates (or replaces) the ring file. slotCount must be a power of 2.
+	static ShmRing create(File file, int slotCount, int slotSize) throws IOException {
+		checkArgument(slotCount > 0 && Integer.bitCount(slotCount) == 1, "Slot count must be a power of 2");
+		checkArgument(slotSize > SLOT_LINE_OFFSET, "Slot size is too small");
+
+		long size = SLOTS_OFFSET + (long) slotCount * slotSize;
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.putInt(VERSION_OFFSET, LAYOUT_VERSION);
+		buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+		buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+		buffer.putLong(PUBLISHED_OFFSET, 0);
+		buffer.putInt(CLOSED_OFFSET, 0);
+
+		// A reader that sees the magic number sees the rest of the header
+		VarHandle.releaseFence();
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		return new ShmRing(buffer, slotCount, slotSize);
+	}
+
+	// Opens an existing ring file for reading.
+	static ShmRing open(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.capacity() < SLOTS_OFFSET || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+			throw new IOException("Not a packet ring file (or not yet initialized): " + file);
+		}
+		VarHandle.acquireFence();
+		if (buffer.getInt(VERSION_OFFSET) != LAYOUT_VERSION) {
+			throw new IOException("Unsupported packet ring layout version " + buffer.getInt(VERSION_OFFSET));
+		}
+
+		int slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+		int slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+		if (buffer.capacity() < SLOTS_OFFSET + (long) slotCount * slotSize) {
+			throw new IOException("Packet ring file is truncated: " + file);
+		}
+		return new ShmRing(buffer, slotCount, slotSize);
+	}
+
+	private int slotOffset(long sequence) {
+		return SLOTS_OFFSET + (int) (sequence & (slotCount - 1)) * slotSize;
+	}
+
+	int getSlotCount() {
+		return slotCount;
+	}
+
+	// The longest line a slot can hold
+	int getMaxLineLength() {
+		return slotSize - SLOT_LINE_OFFSET;
+	}
+
+	// Writer side. Publishes a packet under the given sequence number, which
+	// must be one more than the last. Returns false, publishing nothing, if
+	// the packet's line is too long for a slot.
+	boolean publish(long sequence, Packet packet) {
+		int length = packet.getLineLength();
+		if (length > getMaxLineLength()) {
+			return false;
+		}
+
+		int offset = slotOffset(sequence);
+		buffer.putLong(offset + SLOT_SEQUENCE_OFFSET, 0);
+		VarHandle.releaseFence();
+
+		buffer.putInt(offset + SLOT_LENGTH_OFFSET, length);
+		buffer.position(offset + SLOT_LINE_OFFSET);
+		packet.putLine(buffer);
+		VarHandle.releaseFence();
+
+		buffer.putLong(offset + SLOT_SEQUENCE_OFFSET, sequence);
+		VarHandle.releaseFence();
+
+		buffer.putLong(PUBLISHED_OFFSET, sequence);
+		return true;
+	}
+
+	// Writer side. Tells readers that nothing more is coming.
+	void close() {
+		VarHandle.releaseFence();
+		buffer.putInt(CLOSED_OFFSET, 1);
+	}
+
+	// Reader side. Gets the sequence number of the newest packet, or 0 if
+	// there is none yet.
+	long getPublished() {
+		long published = buffer.getLong(PUBLISHED_OFFSET);
+		VarHandle.acquireFence();
+		return published;
+	}
+
+	// Reader side.
+	boolean isClosed() {
+		boolean closed = buffer.getInt(CLOSED_OFFSET) != 0;
+		VarHandle.acquireFence();
+		return closed;
+	}
+
+	// Reader side. Copies the line of packet number sequence into line,
+	// which must have room for getMaxLineLength() bytes, and returns its
+	// length. Returns -1 if that packet is no longer (or not yet) in the
+	// ring, or was being overwritten while it was read.
+	int read(long sequence, byte[] line) {
+		int offset = slotOffset(sequence);
+		if (buffer.getLong(offset + SLOT_SEQUENCE_OFFSET) != sequence) {
+			return -1;
+		}
+		VarHandle.acquireFence();
+
+		int length = buffer.getInt(offset + SLOT_LENGTH_OFFSET);
+		if (length < 0 || length > getMaxLineLength()) {
+			return -1;
+		}
+		for (int i = 0; i < length; ++i) {
+			line[i] = buffer.get(offset + SLOT_LINE_OFFSET + i);
+		}
+		VarHandle.acquireFence();
+
+		return buffer.getLong(offset + SLOT_SEQUENCE_OFFSET) == sequence ? length : -1;
+	}
+}
@@ -0,0 +1,159 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Logger;
+
+// Writes packets to one client at a time, over a connection accepted from a
+// server socket of some kind. Subclasses open the server socket and accept
+// clients from it; the handling of each client is the same for all of them.
+public abstract class SingleClientPacketWriterService extends PacketWriterService {
+	private static final Logger log = Logger.getLogger(SingleClientPacketWriterService.class.getName());
+
+	// How long each wait for a client lasts before checking whether the
+	// writer is stopping
+	private static final int ACCEPT_TIMEOUT_MILLIS = 250;
+
+	// A connected client, as accepted by a subclass
+	abstract static class Connection implements Closeable {
+		// Readies the connection for output only; nothing is read from a
+		// client
+		abstract void prepare() throws IOException;
+
+		abstract OutputStream getOutputStream() throws IOException;
+
+		abstract WritableByteChannel getChannel();
+	}
+
+	// If set, a disconnect ends only that connection; the server socket stays
+	// open and the next client to connect picks up where the last left off.
+	private final boolean persist;
+
+	private final Io io;
+
+	// Set for the current client according to io
+	private final PacketLineOutput output = new PacketLineOutput();
+
+	SingleClientPacketWriterService(Main main, boolean persist, Io io) {
+		super(main);
+		this.persist = persist;
+		this.io = checkNotNull(io);
+	}
+
+	protected Io getIo() {
+		return io;
+	}
+
+	// Opens the server socket, returning something that closes it.
+	protected abstract Closeable openServer() throws IOException;
+
+	// Waits up to about timeoutMillis for a client to connect, returning null
+	// if none does.
+	protected abstract Connection accept(int timeoutMillis) throws IOException;
+
+	@Override
+	protected void run() throws Exception {
+		Closeable server = openServer();
+		try {
+			do {
+				serveClient();
+			} while (persist && isRunning());
+		} finally {
+			server.close();
+		}
+	}
+
+	private void serveClient() throws IOException {
+		Connection accepted = acceptClient();
+		if (accepted == null) {
+			if (persist) {
+				return;
+			}
+			throw new IllegalStateException("Stopped waiting for client because writer is stopping");
+		}
+
+		clientConnected();
+		try (Connection connection = accepted) {
+			connection.prepare();
+
+			// Each packet is flushed as it is written, so closing the
+			// connection loses nothing.
+			if (io == Io.CHANNEL) {
+				output.setChannel(connection.getChannel());
+			} else {
+				output.setOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			}
+
+			if (persist) {
+				// Anything still waiting was meant for the previous client
+				// and may be well out of date; the current state replaces
+				// all of it.
+				discardWaitingPackets();
+				writePacket(getCurrentPacket());
+			}
+			packetWriterLoopBody();
+		} catch (IOException e) {
+			// A channel reports a dropped connection as a plain IOException
+			log.warning("Client is no longer connected: " + e.getMessage());
+		} finally {
+			clientDisconnected();
+			output.clear();
+		}
+	}
+
+	// Returns null if the writer stops before a client connects.
+	private Connection acceptClient() throws IOException {
+		log.info("Waiting for client");
+		while (isRunning()) {
+			Connection connection = accept(ACCEPT_TIMEOUT_MILLIS);
+			if (connection != null) {
+				return connection;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		bufferPacket(packet);
+		flushPackets();
+	}
+
+	@Override
+	protected void bufferPacket(Packet packet) throws IOException {
+		output.put(packet);
+	}
+
+	@Override
+	protected void flushPackets() throws IOException {
+		output.flush();
+	}
+}
@@ -23,16 +23,56 @@
 
 package us.hgk.rhythm.exp.sextetsinputtest;
 
+import static com.google.common.base.Preconditions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 public class StdoutPacketWriterService extends PacketWriterService {
 
+	private final Io io;
+
+	private final PacketLineOutput output = new PacketLineOutput();
+
 	StdoutPacketWriterService(Main main) {
+		this(main, Io.STREAM);
+	}
+
+	StdoutPacketWriterService(Main main, Io io) {
 		super(main);
+		this.io = checkNotNull(io);
+	}
+
+	@Override
+	protected void startUp() throws Exception {
+		if (io == Io.CHANNEL) {
+			// The standard output file descriptor itself, bypassing
+			// System.out (and its lock and buffer) entirely. It is never
+			// closed, so the descriptor stays open for anyone else.
+			output.setChannel(new FileOutputStream(FileDescriptor.out).getChannel());
+		} else {
+			// System.out flushes on every write, so a batch has to be
+			// collected in front of it to go out in one write.
+			output.setOutputStream(new BufferedOutputStream(System.out, 4096));
+		}
+	}
+
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		bufferPacket(packet);
+		flushPackets();
+	}
+
+	@Override
+	protected void bufferPacket(Packet packet) throws IOException {
+		output.put(packet);
 	}
 
 	@Override
-	protected void outputPacket(Packet packet) {
-		System.out.println(packet.getData());
-		System.out.flush();
+	protected void flushPackets() throws IOException {
+		output.flush();
 	}
 
 
@@ -0,0 +1,173 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+
+// Reads key events, one per line, from standard input or a file, so that the
+// service can run with no window, display, or keyboard focus at all. Each
+// line is
+//
+// press KEYCODE
+// release KEYCODE
+//
+// with the key code, 0 .. 0xFFFF, in decimal, or hex with a 0x prefix, as in
+// the keymap parameter. Blank lines and lines starting with # are skipped,
+// and so, with a warning, is anything else, including a key code out of
+// range. Each event is stamped with the time it
+// was read.
+//
+// At the end of the input, the events read are allowed to make their way
+// out, and then the service stops.
+public class StreamInputService extends AbstractIdleService implements InputSourceService {
+	private static final Logger log = Logger.getLogger(StreamInputService.class.getName());
+
+	// The highest key code accepted; the packets and the shm writer's slots
+	// have room for every 16-bit key code, but not for much more
+	private static final int MAX_KEY_CODE = 0xFFFF;
+
+	private final Main main;
+
+	// Null for standard input
+	private final File file;
+
+	private InputStream in;
+	private Thread readerThread;
+	private volatile boolean continuing = true;
+
+	StreamInputService(Main main, File file) {
+		this.main = checkNotNull(main);
+		this.file = file;
+	}
+
+	@Override
+	protected void startUp() throws Exception {
+		if (file != null) {
+			log.info("Reading key events from " + file);
+			in = new FileInputStream(file);
+		} else {
+			log.info("Reading key events from standard input");
+			in = System.in;
+		}
+
+		// A read from standard input can't be interrupted, so the reader is
+		// a daemon thread that is simply abandoned if the service stops
+		// while it waits.
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readEvents();
+			}
+		}, "StreamInputService reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	@Override
+	protected void shutDown() throws Exception {
+		continuing = false;
+		readerThread.interrupt();
+		if (file != null) {
+			in.close();
+		}
+	}
+
+	private void readEvents() {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+			String line;
+			int lineNumber = 0;
+			while (continuing && (line = reader.readLine()) != null) {
+				++lineNumber;
+				readEvent(line.trim(), lineNumber);
+			}
+		} catch (IOException e) {
+			if (continuing) {
+				log.warning("Could not read key events: " + e.getMessage());
+			}
+		}
+
+		if (continuing) {
+			log.info("End of key events");
+			awaitOutput();
+			main.inputClosed();
+		}
+	}
+
+	private void readEvent(String line, int lineNumber) {
+		if (line.isEmpty() || line.startsWith("#")) {
+			return;
+		}
+
+		String[] parts = line.split("\\s+");
+		if (parts.length == 2) {
+			Integer keyCode = parseKeyCode(parts[1]);
+			if (keyCode != null) {
+				switch (parts[0]) {
+				case "press":
+					main.keyEvent(keyCode, true, System.currentTimeMillis());
+					return;
+				case "release":
+					main.keyEvent(keyCode, false, System.currentTimeMillis());
+					return;
+				}
+			}
+		}
+		log.warning("Skipping line " + lineNumber + " (expected 'press KEYCODE' or 'release KEYCODE'): " + line);
+	}
+
+	// Returns null unless str is a key code in range
+	private static Integer parseKeyCode(String str) {
+		int keyCode;
+		try {
+			keyCode = Integer.decode(str);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return (keyCode >= 0 && keyCode <= MAX_KEY_CODE) ? keyCode : null;
+	}
+
+	// Waits for the events already read to be handled and their packets
+	// taken by the writers, so that stopping doesn't cut them off.
+	private void awaitOutput() {
+		try {
+			while (continuing && !main.isOutputCaughtUp()) {
+				Thread.sleep(1);
+			}
+		} catch (InterruptedException e) {
+			// Stopping anyway
+		}
+	}
+}
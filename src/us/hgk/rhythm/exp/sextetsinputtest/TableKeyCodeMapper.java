@@ -0,0 +1,49 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+// Maps a fixed list of raw key codes to their positions in the list; any
+// other key is ignored.
+public class TableKeyCodeMapper implements KeyCodeMapper {
+
+	private final IntIndexMap indexes;
+
+	TableKeyCodeMapper(int[] rawKeyCodes) {
+		indexes = new IntIndexMap(rawKeyCodes.length);
+		for (int i = 0; i < rawKeyCodes.length; ++i) {
+			int rawKeyCode = rawKeyCodes[i];
+			checkArgument(rawKeyCode >= 0, "%s is not a valid key code", rawKeyCode);
+			checkArgument(indexes.get(rawKeyCode) < 0, "Key code %s appears more than once", rawKeyCode);
+			indexes.put(rawKeyCode, i);
+		}
+	}
+
+	@Override
+	public int toIndex(int rawKeyCode, boolean pressed) {
+		return indexes.get(rawKeyCode);
+	}
+
+}
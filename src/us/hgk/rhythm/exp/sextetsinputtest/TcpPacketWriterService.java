@@ -25,29 +25,43 @@ package us.hgk.rhythm.exp.sextetsinputtest;
 
 import static com.google.common.base.Preconditions.*;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Logger;
 
-public class TcpPacketWriterService extends PacketWriterService {
+public class TcpPacketWriterService extends SingleClientPacketWriterService {
 	private static final Logger log = Logger.getLogger(TcpPacketWriterService.class.getName());
+
 	private String host;
 	private int port;
 
-	private BufferedWriter out;
+	private final TcpSocketOptions socketOptions;
+
+	private ServerSocket serverSocket;
 
 	TcpPacketWriterService(Main main, String host, int port) {
-		super(main);
+		this(main, host, port, false);
+	}
+
+	TcpPacketWriterService(Main main, String host, int port, boolean persist) {
+		this(main, host, port, persist, Io.STREAM, TcpSocketOptions.DEFAULT);
+	}
+
+	TcpPacketWriterService(Main main, String host, int port, boolean persist, Io io,
+			TcpSocketOptions socketOptions) {
+		super(main, persist, io);
 		this.host = host;
 		checkArgument(isValidPort(port), "%d is not a valid port number", port);
 		this.port = port;
+		this.socketOptions = checkNotNull(socketOptions);
 	}
 
 	private static boolean isValidPort(int port) {
@@ -55,47 +69,57 @@ public class TcpPacketWriterService extends PacketWriterService {
 	}
 
 	@Override
-	protected void run() throws Exception {
-		try (ServerSocket serverSocket = getServerSocket();
-				Socket socket = acceptClient(serverSocket);
-				OutputStream os = socket.getOutputStream();
-				OutputStreamWriter osw = new OutputStreamWriter(os);
-				BufferedWriter bw = new BufferedWriter(osw);) {
+	protected Closeable openServer() throws IOException {
+		serverSocket = getServerSocket();
+		return serverSocket;
+	}
+
+	@Override
+	protected Connection accept(int timeoutMillis) throws IOException {
+		serverSocket.setSoTimeout(timeoutMillis);
+		try {
+			return new TcpConnection(serverSocket.accept());
+		} catch (SocketTimeoutException e) {
+			return null;
+		}
+	}
+
+	private class TcpConnection extends Connection {
+		private final Socket socket;
+
+		TcpConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		void prepare() throws IOException {
+			socketOptions.applyTo(socket);
 
 			log.finer("Shutting down input side of socket");
 			socket.shutdownInput();
-			out = bw;
-
-			try {
-				packetWriterLoopBody();
-			} catch (SocketException e) {
-				log.warning("Socket is no longer connected: " + e.getMessage());
-			}
-		} finally {
-			out = null;
 		}
-	}
 
-	private Socket acceptClient(ServerSocket serverSocket) throws IOException {
-		log.info("Waiting for client");
-		int oldTimeout = serverSocket.getSoTimeout();
-		try {
-			serverSocket.setSoTimeout(250);
-			while (isRunning()) {
-				try {
-					return serverSocket.accept();
-				} catch (SocketTimeoutException e) {
-					// Check conditions, then continue waiting
-					continue;
-				}
-			}
-			throw new IllegalStateException("Stopped waiting for client because writer is stopping");
-		} finally {
-			serverSocket.setSoTimeout(oldTimeout);
+		@Override
+		OutputStream getOutputStream() throws IOException {
+			return socket.getOutputStream();
+		}
+
+		@Override
+		WritableByteChannel getChannel() {
+			return socket.getChannel();
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
 		}
 	}
 
 	private ServerSocket getServerSocket() throws IOException {
+		if (getIo() == Io.CHANNEL) {
+			return getServerChannelSocket();
+		}
+
 		if (host == null) {
 			log.info("Opening server socket on port " + port);
 			return new ServerSocket(port);
@@ -107,11 +131,26 @@ public class TcpPacketWriterService extends PacketWriterService {
 		}
 	}
 
-	@Override
-	protected void outputPacket(Packet packet) throws IOException {
-		out.write(packet.getData());
-		out.newLine();
-		out.flush();
-	}
+	// A server socket whose accepted sockets have channels. Its accept()
+	// honors the timeout just like a plain ServerSocket's.
+	private ServerSocket getServerChannelSocket() throws IOException {
+		InetSocketAddress address;
+		if (host == null) {
+			log.info("Opening server channel on port " + port);
+			address = new InetSocketAddress(port);
+		} else {
+			address = new InetSocketAddress(InetAddress.getByName(host), port);
+			log.info("Opening server channel on host " + address.getAddress().toString() + ", port " + port);
+		}
 
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			ServerSocket serverSocket = serverChannel.socket();
+			serverSocket.bind(address);
+			return serverSocket;
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+	}
 }
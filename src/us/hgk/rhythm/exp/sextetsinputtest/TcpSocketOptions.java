@@ -0,0 +1,61 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+// Options applied to each accepted TCP connection. Anything left unset keeps
+// the operating system's default.
+final class TcpSocketOptions {
+	static final TcpSocketOptions DEFAULT = new TcpSocketOptions(null, 0);
+
+	// TCP_NODELAY, or null to leave it alone
+	private final Boolean noDelay;
+	// SO_SNDBUF in bytes, or 0 to leave it alone
+	private final int sendBufferSize;
+
+	TcpSocketOptions(Boolean noDelay, int sendBufferSize) {
+		checkArgument(sendBufferSize >= 0, "Send buffer size must not be negative");
+		this.noDelay = noDelay;
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	void applyTo(Socket socket) throws SocketException {
+		if (noDelay != null) {
+			socket.setTcpNoDelay(noDelay);
+		}
+		if (sendBufferSize > 0) {
+			socket.setSendBufferSize(sendBufferSize);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TCP_NODELAY " + (noDelay == null ? "default" : noDelay) + ", SO_SNDBUF "
+				+ (sendBufferSize == 0 ? "default" : sendBufferSize);
+	}
+}
@@ -0,0 +1,141 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Logger;
+
+// Sends each packet as one UDP datagram, to a unicast address or a
+// multicast group. Nothing is connected, acknowledged, or retransmitted, so
+// a lost or late datagram never holds up the ones after it.
+//
+// Each datagram is an 8-byte big-endian sequence number, counting up from 1
+// with every datagram sent (keepalives included), followed by the packet's
+// data and line terminator. Since every packet carries the whole key state,
+// a receiver can simply drop any datagram whose sequence number isn't
+// higher than the last one it used.
+public class UdpPacketWriterService extends PacketWriterService {
+	private static final Logger log = Logger.getLogger(UdpPacketWriterService.class.getName());
+
+	private final String host;
+	private final int port;
+
+	// Multicast only: the hop limit, or 0 for the default of 1; and the
+	// name of the interface to send from, or null for the default
+	private final int multicastTtl;
+	private final String multicastInterface;
+
+	private DatagramChannel channel;
+	private InetSocketAddress target;
+
+	// Reused for every datagram; replaced with a larger one as needed
+	private ByteBuffer datagram = ByteBuffer.allocateDirect(4096);
+	private long sequence = 0;
+
+	UdpPacketWriterService(Main main, String host, int port) {
+		this(main, host, port, 0, null);
+	}
+
+	UdpPacketWriterService(Main main, String host, int port, int multicastTtl, String multicastInterface) {
+		super(main);
+		this.host = checkNotNull(host);
+		checkArgument(port > 0 && port <= 0xFFFF, "%d is not a valid port number", port);
+		this.port = port;
+		checkArgument(multicastTtl >= 0 && multicastTtl <= 255, "%d is not a valid TTL", multicastTtl);
+		this.multicastTtl = multicastTtl;
+		this.multicastInterface = multicastInterface;
+	}
+
+	@Override
+	protected void startUp() throws Exception {
+		InetAddress address = InetAddress.getByName(host);
+		target = new InetSocketAddress(address, port);
+
+		if (address.isMulticastAddress()) {
+			log.info("Sending datagrams to multicast group " + address + ", port " + port);
+			channel = DatagramChannel.open(address.getAddress().length == 4 ? StandardProtocolFamily.INET
+					: StandardProtocolFamily.INET6);
+			try {
+				configureMulticast(channel);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		} else {
+			log.info("Sending datagrams to " + address + ", port " + port);
+			channel = DatagramChannel.open();
+		}
+
+		// A full send buffer drops the datagram rather than holding up the
+		// writer; see outputPacket().
+		channel.configureBlocking(false);
+	}
+
+	private void configureMulticast(DatagramChannel channel) throws IOException {
+		if (multicastTtl > 0) {
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, multicastTtl);
+		}
+		if (multicastInterface != null) {
+			NetworkInterface networkInterface = NetworkInterface.getByName(multicastInterface);
+			if (networkInterface == null) {
+				throw new SocketException("No network interface named '" + multicastInterface + "'");
+			}
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+		}
+	}
+
+	@Override
+	protected void shutDown() throws Exception {
+		channel.close();
+	}
+
+	@Override
+	protected void outputPacket(Packet packet) throws IOException {
+		int length = 8 + packet.getLineLength();
+		if (datagram.capacity() < length) {
+			datagram = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+		}
+
+		datagram.clear();
+		datagram.putLong(++sequence);
+		packet.putLine(datagram);
+		datagram.flip();
+
+		// A datagram goes out whole or not at all; one the system has no room
+		// for right now is as good as lost on the network.
+		if (channel.send(datagram, target) == 0) {
+			log.fine("Datagram " + sequence + " not sent");
+		}
+	}
+}
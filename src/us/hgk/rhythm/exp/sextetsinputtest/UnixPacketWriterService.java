@@ -0,0 +1,220 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Logger;
+
+// Like TcpPacketWriterService, but listens on a Unix domain socket, which
+// skips the TCP/IP stack entirely for clients on the same host.
+public class UnixPacketWriterService extends SingleClientPacketWriterService {
+	private static final Logger log = Logger.getLogger(UnixPacketWriterService.class.getName());
+
+	private final Path path;
+
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+
+	UnixPacketWriterService(Main main, Path path) {
+		this(main, path, false, Io.STREAM);
+	}
+
+	UnixPacketWriterService(Main main, Path path, boolean persist, Io io) {
+		super(main, persist, io);
+		this.path = checkNotNull(path);
+	}
+
+	@Override
+	protected Closeable openServer() throws IOException {
+		log.info("Opening server socket at " + path);
+		serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		FileChannel lockChannel = null;
+		try {
+			UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+			try {
+				serverChannel.bind(address);
+				lockChannel = lockPath();
+			} catch (BindException e) {
+				// A socket file left behind by an earlier run that didn't shut
+				// down cleanly makes the bind fail. Every running instance
+				// holds the lock for its socket, so if the lock can be had and
+				// the file is a socket, nothing is serving it and it can go.
+				// Anything else is left alone, and the bind fails as it
+				// should.
+				lockChannel = lockPath();
+				if (lockChannel == null) {
+					BindException inUse = new BindException("Socket " + path + " is in use by another instance");
+					inUse.initCause(e);
+					throw inUse;
+				}
+				if (!isSocketFile(path)) {
+					throw e;
+				}
+				log.info("Removing stale socket file " + path);
+				Files.delete(path);
+				serverChannel.bind(address);
+			}
+			final Object socketFileKey = getFileKey(path);
+
+			// A channel has no accept timeout, so waits go through a selector
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			final FileChannel lock = lockChannel;
+			return new Closeable() {
+				@Override
+				public void close() throws IOException {
+					try {
+						selector.close();
+						serverChannel.close();
+
+						// Only the file this instance bound; if another has
+						// since replaced it, that one is left alone
+						if (socketFileKey != null && socketFileKey.equals(getFileKey(path))) {
+							Files.deleteIfExists(path);
+						}
+					} finally {
+						if (lock != null) {
+							lock.close();
+						}
+					}
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			if (lockChannel != null) {
+				lockChannel.close();
+			}
+			serverChannel.close();
+			throw e;
+		}
+	}
+
+	// Takes an advisory lock on a file beside the socket file, which a
+	// running instance holds for as long as it serves the socket. Returns
+	// the locked channel, or null if another instance holds the lock.
+	//
+	// The lock file is never removed; an instance removing it while another
+	// opens it could leave the two holding locks on different files.
+	private FileChannel lockPath() throws IOException {
+		Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+		FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			if (channel.tryLock() != null) {
+				return channel;
+			}
+		} catch (OverlappingFileLockException e) {
+			// Held by another writer in this process
+		}
+		channel.close();
+		return null;
+	}
+
+	// Returns something identifying the file at path (the device and inode,
+	// on Unix), or null if there is none or it can't be identified.
+	private static Object getFileKey(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static boolean isSocketFile(Path path) throws IOException {
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			return false;
+		}
+		try {
+			// The file type bits of st_mode; S_IFSOCK is 0140000
+			int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+			return (mode & 0170000) == 0140000;
+		} catch (UnsupportedOperationException e) {
+			// No unix attribute view, so settle for "not a file, directory,
+			// or link"
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+		}
+	}
+
+	@Override
+	protected Connection accept(int timeoutMillis) throws IOException {
+		selector.select(timeoutMillis);
+		selector.selectedKeys().clear();
+
+		SocketChannel accepted = serverChannel.accept();
+		if (accepted == null) {
+			return null;
+		}
+		accepted.configureBlocking(true);
+		return new UnixConnection(accepted);
+	}
+
+	private static class UnixConnection extends Connection {
+		private final SocketChannel socketChannel;
+
+		UnixConnection(SocketChannel socketChannel) {
+			this.socketChannel = socketChannel;
+		}
+
+		@Override
+		void prepare() throws IOException {
+			log.finer("Shutting down input side of socket");
+			socketChannel.shutdownInput();
+		}
+
+		@Override
+		OutputStream getOutputStream() throws IOException {
+			return Channels.newOutputStream(socketChannel);
+		}
+
+		@Override
+		WritableByteChannel getChannel() {
+			return socketChannel;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socketChannel.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/* * * * *
+ * Copyright © 2016 Peter S. May
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * * * * */
+
+package us.hgk.rhythm.exp.sextetsinputtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Determines how a consumer thread waits for work, trading CPU for wake-up
+// latency. Modeled on the wait strategies of the LMAX Disruptor:
+//
+// - blocking parks the consumer until a producer unparks it. It uses no CPU
+// while idle, but each wake-up goes through the OS scheduler.
+// - sleeping spins, then yields, then parks for short, fixed intervals. No
+// producer has to wake it, and it uses little CPU while idle.
+// - yielding spins, then yields the rest of the time, so the consumer keeps
+// a core busy but gives it up to any other runnable thread.
+// - spin never stops checking, so the consumer occupies a whole core while
+// idle and wakes up as fast as possible.
+//
+// A strategy instance serves one consumer thread and any number of
+// producers.
+abstract class WaitStrategy {
+
+	// The condition a consumer waits on
+	interface Readiness {
+		boolean isReady();
+	}
+
+	// Consumer side. Waits until ready.isReady(), which is checked at least
+	// once. May return early (for example, on an interrupt), so the caller
+	// must check again.
+	abstract void waitFor(Readiness ready);
+
+	// Producer side. Called after making ready.isReady() true.
+	void signal() {
+	}
+
+	// Gets a new instance of the same strategy, for another consumer thread.
+	WaitStrategy duplicate() {
+		return forName(toString());
+	}
+
+	// Gets a new strategy by name: "blocking", "sleeping", "yielding", or
+	// "spin". Returns null for any other name.
+	static WaitStrategy forName(String name) {
+		switch (name) {
+		case "blocking":
+			return new Blocking();
+		case "sleeping":
+			return new Sleeping();
+		case "yielding":
+			return new Yielding();
+		case "spin":
+			return new BusySpin();
+		default:
+			return null;
+		}
+	}
+
+	static final class Blocking extends WaitStrategy {
+		private volatile Thread waiter;
+		private volatile boolean parked = false;
+
+		@Override
+		void waitFor(Readiness ready) {
+			waiter = Thread.currentThread();
+
+			// parked is set before the check, so anything made ready after
+			// the check sees it and unparks this thread.
+			parked = true;
+			if (!ready.isReady()) {
+				LockSupport.park(this);
+			}
+			parked = false;
+		}
+
+		@Override
+		void signal() {
+			if (parked) {
+				LockSupport.unpark(waiter);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "blocking";
+		}
+	}
+
+	static final class Sleeping extends WaitStrategy {
+		private static final int SPINS = 200;
+		private static final int YIELDS = 100;
+		private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+		@Override
+		void waitFor(Readiness ready) {
+			int counter = SPINS + YIELDS;
+			while (!ready.isReady()) {
+				if (counter > YIELDS) {
+					--counter;
+				} else if (counter > 0) {
+					--counter;
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(this, SLEEP_NANOS);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "sleeping";
+		}
+	}
+
+	static final class Yielding extends WaitStrategy {
+		private static final int SPINS = 100;
+
+		@Override
+		void waitFor(Readiness ready) {
+			int counter = SPINS;
+			while (!ready.isReady()) {
+				if (counter > 0) {
+					--counter;
+				} else {
+					Thread.yield();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "yielding";
+		}
+	}
+
+	static final class BusySpin extends WaitStrategy {
+		@Override
+		void waitFor(Readiness ready) {
+			while (!ready.isReady()) {
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "spin";
+		}
+	}
+}
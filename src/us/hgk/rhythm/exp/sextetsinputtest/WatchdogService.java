@@ -26,12 +26,13 @@ package us.hgk.rhythm.exp.sextetsinputtest;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 
-public class WatchdogService extends AbstractExecutionThreadService {
+public class WatchdogService extends AbstractExecutionThreadService implements WatchdogMXBean {
 
 	private final Main main;
 
@@ -44,6 +45,8 @@ public class WatchdogService extends AbstractExecutionThreadService {
 
 	private final long intervalNanos;
 
+	private final LongAdder keepalivesRequested = new LongAdder();
+
 	public WatchdogService(Main main, long intervalMillis) {
 		this.main = main;
 		if (intervalMillis > 0) {
@@ -79,13 +82,35 @@ public class WatchdogService extends AbstractExecutionThreadService {
 
 	private void timeExpired(long now, long remaining) {
 		if (active.get()) {
+			keepalivesRequested.increment();
+
+			PipelineEvents.Keepalive event = new PipelineEvents.Keepalive();
+			event.begin();
 			main.watchdogTimeout();
+			event.end();
+			if (event.shouldCommit()) {
+				event.packetLength = Packet.BLANK_PACKET.getLineLength();
+				event.queueDepth = main.getQueueDepth();
+				event.intervalMillis = TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+				event.commit();
+			}
+
 			expiration.set(now + intervalNanos);
 		} else {
 			expiration.set(Long.MAX_VALUE);
 		}
 	}
 
+	@Override
+	public long getKeepalivesRequested() {
+		return keepalivesRequested.sum();
+	}
+
+	@Override
+	public long getIntervalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+	}
+
 	@Override
 	protected void triggerShutdown() {
 		continuing.set(false);